@@ -13,19 +13,65 @@ package org.berlin.research.javap;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.CharArrayWriter;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Vector;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -66,16 +112,10 @@ public class TestRuntimeWrapper {
     public static void simpleTest() {
         System.out.print("Running Simple Test");        
         final IExtractClassData classData2 = new ExtractClassData();
-        classData2.setVerbose(false);
         classData2.setInputClassName("java.lang.String");
+        classData2.setViews(new int[] { JavapEnvironment.VIEW_SUMMARY, JavapEnvironment.VIEW_VERBOSE });
         classData2.appMain(null);        
         System.out.print(classData2.getResult());
-        
-        final IExtractClassData classData3 = new ExtractClassData();
-        classData3.setVerbose(true);
-        classData3.setInputClassName("java.lang.String");
-        classData3.appMain(null);        
-        System.out.print(classData3.getResult());
     }
     
     /**
@@ -225,14 +265,28 @@ public class TestRuntimeWrapper {
      */
     private void displayResults() {
 
+        // Read the jars on the search path once, up front
+        env.buildIndexes();
         for (int i = 0; i < classList.size(); i++) {
             final String Name = (String) classList.elementAt(i);
-            InputStream classin = env.getFileInputStream(Name);
             try {
-                // actual do display
-                JavapPrinter printer = new JavapPrinter(classin, out, env);
-                printer.print();
+                final ClassLookup lookup = env.lookupClass(Name);
+                if (!lookup.isFound()) {
+                    env.error(lookup.getMessage());
+                    errorOccurred = true;
+                    continue;
+                }
+                ByteBuffer classin = JavapEnvironment.toBuffer(lookup.getStream());
+                try {
+                    // actual do display
+                    JavapPrinter printer = new JavapPrinter(classin, out, env);
+                    printer.print();
+                } finally {
+                    ClassBuffers.release(classin);
+                }
 
+            } catch (IOException exc) {
+                error(exc.getMessage());
             } catch (IllegalArgumentException exc) {
                 error(exc.getMessage());
             }
@@ -265,6 +319,17 @@ public class TestRuntimeWrapper {
             catch_cpx = in.readShort();
         }
 
+        /**
+         * Read exception table data from a class file buffer.
+         */
+        public TrapData(ByteBuffer in, int num) {
+            this.num = num;
+            start_pc = in.getShort();
+            end_pc = in.getShort();
+            handler_pc = in.getShort();
+            catch_cpx = in.getShort();
+        }
+
         /**
          * returns recommended identifier
          */
@@ -553,6 +618,12 @@ public class TestRuntimeWrapper {
             defineTag("Method", RuntimeConstants.CONSTANT_METHOD);
             defineTag("InterfaceMethod", RuntimeConstants.CONSTANT_INTERFACEMETHOD);
             defineTag("NameAndType", RuntimeConstants.CONSTANT_NAMEANDTYPE);
+            defineTag("MethodHandle", RuntimeConstants.CONSTANT_METHODHANDLE);
+            defineTag("MethodType", RuntimeConstants.CONSTANT_METHODTYPE);
+            defineTag("Dynamic", RuntimeConstants.CONSTANT_DYNAMIC);
+            defineTag("InvokeDynamic", RuntimeConstants.CONSTANT_INVOKEDYNAMIC);
+            defineTag("Module", RuntimeConstants.CONSTANT_MODULE);
+            defineTag("Package", RuntimeConstants.CONSTANT_PACKAGE);
         }
 
         private static void defineTag(String id, int val) {
@@ -803,6 +874,47 @@ public class TestRuntimeWrapper {
             }
         }
 
+        static StackMapTableData getInstance(ByteBuffer in, MethodData method) {
+
+            int frameType = in.get() & 0xFF;
+
+            if (frameType < RuntimeConstants.SAME_FRAME_BOUND) {
+                // same_frame
+                return new SameFrame(frameType, frameType);
+            } else if (RuntimeConstants.SAME_FRAME_BOUND <= frameType
+                    && frameType < RuntimeConstants.SAME_LOCALS_1_STACK_ITEM_BOUND) {
+                // same_locals_1_stack_item_frame
+                // read additional single stack element
+                return new SameLocals1StackItem(frameType, (frameType - RuntimeConstants.SAME_FRAME_BOUND),
+                        StackMapData.readTypeArray(in, 1, method));
+            } else if (frameType == RuntimeConstants.SAME_LOCALS_1_STACK_ITEM_EXTENDED) {
+                // same_locals_1_stack_item_extended
+                return new SameLocals1StackItem(frameType, in.getShort() & 0xFFFF, StackMapData.readTypeArray(in, 1,
+                        method));
+            } else if (RuntimeConstants.SAME_LOCALS_1_STACK_ITEM_EXTENDED < frameType
+                    && frameType < RuntimeConstants.SAME_FRAME_EXTENDED) {
+                // chop_frame or same_frame_extended
+                return new ChopFrame(frameType, in.getShort() & 0xFFFF);
+            } else if (frameType == RuntimeConstants.SAME_FRAME_EXTENDED) {
+                // chop_frame or same_frame_extended
+                return new SameFrame(frameType, in.getShort() & 0xFFFF);
+            } else if (RuntimeConstants.SAME_FRAME_EXTENDED < frameType && frameType < RuntimeConstants.FULL_FRAME) {
+                // append_frame
+                return new AppendFrame(frameType, in.getShort() & 0xFFFF, StackMapData.readTypeArray(in, frameType
+                        - RuntimeConstants.SAME_FRAME_EXTENDED, method));
+            } else if (frameType == RuntimeConstants.FULL_FRAME) {
+                // full_frame
+                int offsetDelta = in.getShort() & 0xFFFF;
+                int locals_size = in.getShort() & 0xFFFF;
+                int[] locals = StackMapData.readTypeArray(in, locals_size, method);
+                int stack_size = in.getShort() & 0xFFFF;
+                int[] stack = StackMapData.readTypeArray(in, stack_size, method);
+                return new FullFrame(offsetDelta, locals, stack);
+            } else {
+                throw new ClassFormatError("unrecognized frame_type in StackMapTable");
+            }
+        }
+
     } // End of the Class //
 
     /**
@@ -820,6 +932,76 @@ public class TestRuntimeWrapper {
 
         int argumentlength = 0;
 
+        /**
+         * Upper bound on cached descriptors; a full cache drops an entry to
+         * make room.
+         */
+        static final int MAX_CACHED = 8192;
+
+        private static final ConcurrentHashMap<String, Parsed> cache = new ConcurrentHashMap<String, Parsed>(256);
+
+        private static final Parsed NONE = new Parsed(new TypeSignature(null));
+
+        /**
+         * Return the parsed form of a method or field descriptor, shared
+         * between all callers.
+         */
+        public static Parsed forDescriptor(String JVMSignature) {
+            if (JVMSignature == null) {
+                return NONE;
+            }
+            Parsed sig = cache.get(JVMSignature);
+            if (sig == null) {
+                sig = new Parsed(new TypeSignature(JVMSignature));
+                if (cache.size() >= MAX_CACHED) {
+                    final Iterator<String> it = cache.keySet().iterator();
+                    if (it.hasNext()) {
+                        it.next();
+                        it.remove();
+                    }
+                }
+                cache.put(JVMSignature, sig);
+            }
+            return sig;
+        }
+
+        /**
+         * Immutable copy of a TypeSignature, safe to share between threads.
+         */
+        public static final class Parsed {
+
+            private final String parameters;
+
+            private final String returntype;
+
+            private final String fieldtype;
+
+            private final int argumentlength;
+
+            Parsed(TypeSignature sig) {
+                this.parameters = sig.parameters;
+                this.returntype = sig.returntype;
+                this.fieldtype = sig.fieldtype;
+                this.argumentlength = sig.argumentlength;
+            }
+
+            public String getParameters() {
+                return parameters;
+            }
+
+            public String getReturnType() {
+                return returntype;
+            }
+
+            public String getFieldType() {
+                return fieldtype;
+            }
+
+            public int getArgumentlength() {
+                return argumentlength;
+            }
+        }
+
         public TypeSignature(String JVMSignature) {
 
             if (JVMSignature != null) {
@@ -1175,6 +1357,37 @@ public class TestRuntimeWrapper {
 
         public static final int CONSTANT_NAMEANDTYPE = 12;
 
+        public static final int CONSTANT_METHODHANDLE = 15;
+
+        public static final int CONSTANT_METHODTYPE = 16;
+
+        public static final int CONSTANT_DYNAMIC = 17;
+
+        public static final int CONSTANT_INVOKEDYNAMIC = 18;
+
+        public static final int CONSTANT_MODULE = 19;
+
+        public static final int CONSTANT_PACKAGE = 20;
+
+        /* Method handle kinds */
+        public static final int REF_getField = 1;
+
+        public static final int REF_getStatic = 2;
+
+        public static final int REF_putField = 3;
+
+        public static final int REF_putStatic = 4;
+
+        public static final int REF_invokeVirtual = 5;
+
+        public static final int REF_invokeStatic = 6;
+
+        public static final int REF_invokeSpecial = 7;
+
+        public static final int REF_newInvokeSpecial = 8;
+
+        public static final int REF_invokeInterface = 9;
+
         /* Access Flags */
         public static final int ACC_PUBLIC = 0x00000001;
 
@@ -1648,7 +1861,8 @@ public class TestRuntimeWrapper {
 
         public static final int opc_invokeinterface = 185;
 
-        // public static final int opc_xxxunusedxxx = 186;
+        public static final int opc_invokedynamic = 186;
+
         public static final int opc_new = 187;
 
         public static final int opc_newarray = 188;
@@ -1748,7 +1962,7 @@ public class TestRuntimeWrapper {
                 "getstatic", "putstatic", "getfield", "putfield", "invokevirtual",
                 "invokespecial", // was "invokenonvirtual",
                 "invokestatic", "invokeinterface",
-                "bytecode 186", // "xxxunusedxxx",
+                "invokedynamic",
                 "new", "newarray", "anewarray", "arraylength", "athrow", "checkcast", "instanceof", "monitorenter",
                 "monitorexit", null, // "wide",
                 "multianewarray", "ifnull", "ifnonnull", "goto_w", "jsr_w", "bytecode 202", // "breakpoint",
@@ -1788,11 +2002,23 @@ public class TestRuntimeWrapper {
 
         byte[] code;
 
-        Vector exception_table = new Vector(0);
+        /**
+         * View of the code array in the class file buffer, set instead of
+         * code when the method was read from a ByteBuffer.
+         */
+        ByteBuffer codeView;
+
+        /**
+         * Undecoded body of the Code attribute, starting at max_stack. It is
+         * only set while decoding is deferred; see ensureCode.
+         */
+        private ByteBuffer pendingCode;
 
-        Vector lin_num_tb = new Vector(0);
+        Vector<TrapData> exception_table = new Vector<TrapData>(0);
 
-        Vector loc_var_tb = new Vector(0);
+        Vector<LineNumData> lin_num_tb = new Vector<LineNumData>(0);
+
+        Vector<LocVarData> loc_var_tb = new Vector<LocVarData>(0);
 
         StackMapTableData[] stackMapTable;
 
@@ -1800,9 +2026,9 @@ public class TestRuntimeWrapper {
 
         int[] exc_index_table = null;
 
-        Vector attrs = new Vector(0);
+        Vector<AttrData> attrs = new Vector<AttrData>(0);
 
-        Vector code_attrs = new Vector(0);
+        Vector<AttrData> code_attrs = new Vector<AttrData>(0);
 
         int max_stack, max_locals;
 
@@ -1915,12 +2141,191 @@ public class TestRuntimeWrapper {
             }
         }
 
+        /**
+         * Read method info from a class file buffer.
+         */
+        public void read(ByteBuffer in) {
+            access = in.getShort() & 0xFFFF;
+            name_index = in.getShort() & 0xFFFF;
+            descriptor_index = in.getShort() & 0xFFFF;
+            int attributes_count = in.getShort() & 0xFFFF;
+            for (int i = 0; i < attributes_count; i++) {
+                int attr_name_index = in.getShort() & 0xFFFF;
+
+                readAttr: {
+                    if (cls.getTag(attr_name_index) == RuntimeConstants.CONSTANT_UTF8) {
+                        String attr_name = cls.getString(attr_name_index);
+                        if (attr_name.equals("Code")) {
+                            skipCode(in);
+                            AttrData attr = new AttrData(cls);
+                            attr.read(attr_name_index);
+                            attrs.addElement(attr);
+                            break readAttr;
+                        } else if (attr_name.equals("Exceptions")) {
+                            readExceptions(in);
+                            AttrData attr = new AttrData(cls);
+                            attr.read(attr_name_index);
+                            attrs.addElement(attr);
+                            break readAttr;
+                        } else if (attr_name.equals("Synthetic")) {
+                            if (in.getInt() != 0)
+                                throw new ClassFormatError("invalid Synthetic attr length");
+                            isSynthetic = true;
+                            AttrData attr = new AttrData(cls);
+                            attr.read(attr_name_index);
+                            attrs.addElement(attr);
+                            break readAttr;
+                        } else if (attr_name.equals("Deprecated")) {
+                            if (in.getInt() != 0)
+                                throw new ClassFormatError("invalid Synthetic attr length");
+                            isDeprecated = true;
+                            AttrData attr = new AttrData(cls);
+                            attr.read(attr_name_index);
+                            attrs.addElement(attr);
+                            break readAttr;
+                        }
+                    }
+                    AttrData attr = new AttrData(cls);
+                    attr.read(attr_name_index, in);
+                    attrs.addElement(attr);
+                }
+            }
+        }
+
+        /**
+         * Record where the code attribute is and step over it. The body is
+         * decoded by ensureCode the first time code, tables or limits are
+         * asked for, so signature-only listings never touch the bytecode.
+         */
+        void skipCode(ByteBuffer in) {
+            int attr_length = in.getInt();
+            pendingCode = in.slice();
+            pendingCode.limit(attr_length);
+            in.position(in.position() + attr_length);
+        }
+
+        /**
+         * Decode a code attribute recorded by skipCode, if any.
+         */
+        synchronized void ensureCode() {
+            if (pendingCode != null) {
+                ByteBuffer in = pendingCode;
+                pendingCode = null;
+                readCodeBody(in);
+            }
+        }
+
+        /**
+         * Read code attribute info from a class file buffer. The code array
+         * is kept as a view into the buffer rather than copied.
+         */
+        public void readCode(ByteBuffer in) {
+
+            int attr_length = in.getInt();
+            readCodeBody(in);
+        }
+
+        private void readCodeBody(ByteBuffer in) {
+            max_stack = in.getShort() & 0xFFFF;
+            max_locals = in.getShort() & 0xFFFF;
+            int codelen = in.getInt();
+
+            codeView = in.slice();
+            codeView.limit(codelen);
+            in.position(in.position() + codelen);
+
+            readExceptionTable(in);
+            int code_attributes_count = in.getShort() & 0xFFFF;
+
+            for (int k = 0; k < code_attributes_count; k++) {
+                int table_name_index = in.getShort() & 0xFFFF;
+                int table_name_tag = cls.getTag(table_name_index);
+                AttrData attr = new AttrData(cls);
+                if (table_name_tag == RuntimeConstants.CONSTANT_UTF8) {
+                    String table_name_tstr = cls.getString(table_name_index);
+                    if (table_name_tstr.equals("LineNumberTable")) {
+                        readLineNumTable(in);
+                        attr.read(table_name_index);
+                    } else if (table_name_tstr.equals("LocalVariableTable")) {
+                        readLocVarTable(in);
+                        attr.read(table_name_index);
+                    } else if (table_name_tstr.equals("StackMapTable")) {
+                        readStackMapTable(in);
+                        attr.read(table_name_index);
+                    } else if (table_name_tstr.equals("StackMap")) {
+                        readStackMap(in);
+                        attr.read(table_name_index);
+                    } else {
+                        attr.read(table_name_index, in);
+                    }
+                    code_attrs.addElement(attr);
+                    continue;
+                }
+
+                attr.read(table_name_index, in);
+                code_attrs.addElement(attr);
+            }
+        }
+
+        void readExceptionTable(ByteBuffer in) {
+            int exception_table_len = in.getShort() & 0xFFFF;
+            exception_table = new Vector<TrapData>(exception_table_len);
+            for (int l = 0; l < exception_table_len; l++) {
+                exception_table.addElement(new TrapData(in, l));
+            }
+        }
+
+        void readLineNumTable(ByteBuffer in) {
+            int attr_len = in.getInt(); // attr_length
+            int lin_num_tb_len = in.getShort() & 0xFFFF;
+            lin_num_tb = new Vector<LineNumData>(lin_num_tb_len);
+            for (int l = 0; l < lin_num_tb_len; l++) {
+                lin_num_tb.addElement(new LineNumData(in));
+            }
+        }
+
+        void readLocVarTable(ByteBuffer in) {
+            int attr_len = in.getInt(); // attr_length
+            int loc_var_tb_len = in.getShort() & 0xFFFF;
+            loc_var_tb = new Vector<LocVarData>(loc_var_tb_len);
+            for (int l = 0; l < loc_var_tb_len; l++) {
+                loc_var_tb.addElement(new LocVarData(in));
+            }
+        }
+
+        public void readExceptions(ByteBuffer in) {
+            int attr_len = in.getInt(); // attr_length in prog
+            int num_exceptions = in.getShort() & 0xFFFF;
+            exc_index_table = new int[num_exceptions];
+            for (int l = 0; l < num_exceptions; l++) {
+                exc_index_table[l] = in.getShort();
+            }
+        }
+
+        void readStackMapTable(ByteBuffer in) {
+            int attr_len = in.getInt(); // attr_length
+            int stack_map_tb_len = in.getShort() & 0xFFFF;
+            stackMapTable = new StackMapTableData[stack_map_tb_len];
+            for (int i = 0; i < stack_map_tb_len; i++) {
+                stackMapTable[i] = StackMapTableData.getInstance(in, this);
+            }
+        }
+
+        void readStackMap(ByteBuffer in) {
+            int attr_len = in.getInt(); // attr_length
+            int stack_map_len = in.getShort() & 0xFFFF;
+            stackMap = new StackMapData[stack_map_len];
+            for (int i = 0; i < stack_map_len; i++) {
+                stackMap[i] = new StackMapData(in, this);
+            }
+        }
+
         /**
          * Read exception table info.
          */
         void readExceptionTable(DataInputStream in) throws IOException {
             int exception_table_len = in.readUnsignedShort();
-            exception_table = new Vector(exception_table_len);
+            exception_table = new Vector<TrapData>(exception_table_len);
             for (int l = 0; l < exception_table_len; l++) {
                 exception_table.addElement(new TrapData(in, l));
             }
@@ -1932,7 +2337,7 @@ public class TestRuntimeWrapper {
         void readLineNumTable(DataInputStream in) throws IOException {
             int attr_len = in.readInt(); // attr_length
             int lin_num_tb_len = in.readUnsignedShort();
-            lin_num_tb = new Vector(lin_num_tb_len);
+            lin_num_tb = new Vector<LineNumData>(lin_num_tb_len);
             for (int l = 0; l < lin_num_tb_len; l++) {
                 lin_num_tb.addElement(new LineNumData(in));
             }
@@ -1944,7 +2349,7 @@ public class TestRuntimeWrapper {
         void readLocVarTable(DataInputStream in) throws IOException {
             int attr_len = in.readInt(); // attr_length
             int loc_var_tb_len = in.readUnsignedShort();
-            loc_var_tb = new Vector(loc_var_tb_len);
+            loc_var_tb = new Vector<LocVarData>(loc_var_tb_len);
             for (int l = 0; l < loc_var_tb_len; l++) {
                 loc_var_tb.addElement(new LocVarData(in));
             }
@@ -2036,7 +2441,7 @@ public class TestRuntimeWrapper {
          */
         public String getReturnType() {
 
-            String rttype = (new TypeSignature(getInternalSig())).getReturnType();
+            String rttype = TypeSignature.forDescriptor(getInternalSig()).getReturnType();
             return rttype;
         }
 
@@ -2044,7 +2449,7 @@ public class TestRuntimeWrapper {
          * Return java type parameter signature.
          */
         public String getParameters() {
-            String ptype = (new TypeSignature(getInternalSig())).getParameters();
+            String ptype = TypeSignature.forDescriptor(getInternalSig()).getParameters();
 
             return ptype;
         }
@@ -2053,13 +2458,32 @@ public class TestRuntimeWrapper {
          * Return code attribute data of a method.
          */
         public byte[] getCode() {
+            ensureCode();
+            if (code == null && codeView != null) {
+                byte[] b = new byte[codeView.limit()];
+                codeView.duplicate().get(b);
+                code = b;
+            }
             return code;
         }
 
+        /**
+         * Return code attribute data as a buffer, without copying when the
+         * method was read from a class file buffer.
+         */
+        public ByteBuffer getCodeBuffer() {
+            ensureCode();
+            if (codeView != null) {
+                return codeView.duplicate();
+            }
+            return (code == null) ? null : ByteBuffer.wrap(code);
+        }
+
         /**
          * Return LineNumberTable size.
          */
         public int getnumlines() {
+            ensureCode();
             return lin_num_tb.size();
         }
 
@@ -2067,6 +2491,7 @@ public class TestRuntimeWrapper {
          * Return LineNumberTable
          */
         public Vector getlin_num_tb() {
+            ensureCode();
             return lin_num_tb;
         }
 
@@ -2074,6 +2499,7 @@ public class TestRuntimeWrapper {
          * Return LocalVariableTable size.
          */
         public int getloc_var_tbsize() {
+            ensureCode();
             return loc_var_tb.size();
         }
 
@@ -2081,6 +2507,7 @@ public class TestRuntimeWrapper {
          * Return LocalVariableTable.
          */
         public Vector getloc_var_tb() {
+            ensureCode();
             return loc_var_tb;
         }
 
@@ -2088,6 +2515,7 @@ public class TestRuntimeWrapper {
          * Return StackMap.
          */
         public StackMapData[] getStackMap() {
+            ensureCode();
             return stackMap;
         }
 
@@ -2095,6 +2523,7 @@ public class TestRuntimeWrapper {
          * Return StackMapTable.
          */
         public StackMapTableData[] getStackMapTable() {
+            ensureCode();
             return stackMapTable;
         }
 
@@ -2102,7 +2531,7 @@ public class TestRuntimeWrapper {
          * Return number of arguments of that method.
          */
         public int getArgumentlength() {
-            return new TypeSignature(getInternalSig()).getArgumentlength();
+            return TypeSignature.forDescriptor(getInternalSig()).getArgumentlength();
         }
 
         /**
@@ -2118,6 +2547,7 @@ public class TestRuntimeWrapper {
          * Return max depth of operand stack.
          */
         public int getMaxStack() {
+            ensureCode();
             return max_stack;
         }
 
@@ -2125,6 +2555,7 @@ public class TestRuntimeWrapper {
          * Return number of local variables.
          */
         public int getMaxLocals() {
+            ensureCode();
             return max_locals;
         }
 
@@ -2139,6 +2570,7 @@ public class TestRuntimeWrapper {
          * Return exception table in code attributre.
          */
         public Vector getexception_table() {
+            ensureCode();
             return exception_table;
         }
 
@@ -2153,6 +2585,7 @@ public class TestRuntimeWrapper {
          * Return code attributes.
          */
         public Vector getCodeAttributes() {
+            ensureCode();
             return code_attrs;
         }
 
@@ -2195,6 +2628,17 @@ public class TestRuntimeWrapper {
             slot = in.readShort();
 
         }
+
+        /**
+         * Read LocalVariableTable attribute from a class file buffer.
+         */
+        public LocVarData(ByteBuffer in) {
+            start_pc = in.getShort();
+            length = in.getShort();
+            name_cpx = in.getShort();
+            sig_cpx = in.getShort();
+            slot = in.getShort();
+        }
     }
 
     // From: http://hg.openjdk.java.net/jdk7/jaxp/langtools/
@@ -2219,1379 +2663,3418 @@ public class TestRuntimeWrapper {
             line_number = in.readShort();
 
         }
-    }
 
-    // From: http://hg.openjdk.java.net/jdk7/jaxp/langtools/
+        /**
+         * Read LineNumberTable attribute from a class file buffer.
+         */
+        public LineNumData(ByteBuffer in) {
+            start_pc = in.getShort();
+            line_number = in.getShort();
+        }
+    }
 
     /**
-     * Program to print information about class files
-     * 
-     * @author Sucheta Dambalkar
+     * Reusable character buffer for the instruction listing. Numbers are
+     * formatted in place and opcode mnemonics are kept as pre-encoded char
+     * arrays, so printing an instruction does not build temporary strings.
      */
-    public static class JavapPrinter {
-
-        JavapEnvironment env;
+    public static class InstrSink {
 
-        ClassData cls;
+        private static final char[][][] MNEMONICS = new char[4][256][];
 
-        byte[] code;
+        static {
+            final int[] prefix = { 0, RuntimeConstants.opc_wide, RuntimeConstants.opc_nonpriv,
+                    RuntimeConstants.opc_priv };
+            for (int t = 0; t < prefix.length; t++) {
+                for (int i = 0; i < 256; i++) {
+                    final String mnem = Tables.opcName((prefix[t] << 8) + i);
+                    if (mnem != null) {
+                        MNEMONICS[t][i] = mnem.toCharArray();
+                    }
+                }
+            }
+        }
 
-        String lP = "";
+        private char[] buf;
 
-        PrintWriter out;
+        private int len = 0;
 
-        public JavapPrinter(InputStream cname, PrintWriter out, JavapEnvironment env) {
-            this.out = out;
-            this.cls = new ClassData(cname);
-            this.env = env;
+        public InstrSink(int capacity) {
+            buf = new char[capacity];
         }
 
         /**
-         * Entry point to print class file information.
+         * Return the pre-encoded mnemonic of an opcode, including the wide,
+         * nonpriv and priv forms (prefix << 8) + opcode, or null if there is
+         * none.
          */
-        public void print() {
-            printclassHeader();
-            printfields();
-            printMethods();
-            printend();
+        public static char[] mnemonic(int opc) {
+            final int t;
+            switch (opc >> 8) {
+            case 0:
+                t = 0;
+                break;
+            case RuntimeConstants.opc_wide:
+                t = 1;
+                break;
+            case RuntimeConstants.opc_nonpriv:
+                t = 2;
+                break;
+            case RuntimeConstants.opc_priv:
+                t = 3;
+                break;
+            default:
+                return null;
+            }
+            return MNEMONICS[t][opc & 0xFF];
         }
 
-        /**
-         * Print a description of the class (not members).
-         */
-        public void printclassHeader() {
-            String srcName = "";
-            if ((srcName = cls.getSourceName()) != "null") // requires debug
-                // info
-                out.println("Compiled from " + javaclassname(srcName));
+        private void ensure(int n) {
+            if (len + n > buf.length) {
+                final char[] b = new char[Math.max(buf.length * 2, len + n)];
+                System.arraycopy(buf, 0, b, 0, len);
+                buf = b;
+            }
+        }
 
-            if (cls.isInterface()) {
-                // The only useful access modifier of an interface is
-                // public; interfaces are always marked as abstract and
-                // cannot be final.
-                out.print((cls.isPublic() ? "public " : "") + "interface " + javaclassname(cls.getClassName()));
-            } else if (cls.isClass()) {
-                String[] accflags = cls.getAccess();
-                printAccess(accflags);
-                out.print("class " + javaclassname(cls.getClassName()));
+        public InstrSink append(char c) {
+            ensure(1);
+            buf[len++] = c;
+            return this;
+        }
 
-                if (cls.getSuperClassName() != null) {
-                    out.print(" extends " + javaclassname(cls.getSuperClassName()));
+        public InstrSink append(char[] chars) {
+            ensure(chars.length);
+            System.arraycopy(chars, 0, buf, len, chars.length);
+            len += chars.length;
+            return this;
+        }
+
+        public InstrSink append(String str) {
+            final int n = str.length();
+            ensure(n);
+            str.getChars(0, n, buf, len);
+            len += n;
+            return this;
+        }
+
+        public InstrSink appendInt(long x) {
+            return appendPadded(x, 0);
+        }
+
+        /**
+         * Append x right aligned in a field of width characters.
+         */
+        public InstrSink appendPadded(long x, int width) {
+            if (x == Long.MIN_VALUE) {
+                final String str = Long.toString(x);
+                for (int cnt = width - str.length(); cnt > 0; --cnt) {
+                    append(' ');
                 }
+                return append(str);
+            }
+            final boolean neg = x < 0;
+            long v = neg ? -x : x;
+            int digits = 1;
+            for (long t = v; t >= 10; t /= 10) {
+                digits++;
+            }
+            final int n = neg ? digits + 1 : digits;
+            ensure(Math.max(n, width));
+            for (int cnt = width - n; cnt > 0; --cnt) {
+                buf[len++] = ' ';
             }
+            if (neg) {
+                buf[len++] = '-';
+            }
+            int i = len + digits;
+            len = i;
+            do {
+                buf[--i] = (char) ('0' + (int) (v % 10));
+                v /= 10;
+            } while (v != 0);
+            return this;
+        }
 
-            String[] interfacelist = cls.getSuperInterfaces();
-            if (interfacelist.length > 0) {
-                if (cls.isClass()) {
-                    out.print(" implements ");
-                } else if (cls.isInterface()) {
-                    out.print(" extends ");
-                }
+        /**
+         * Write the buffered characters and empty the buffer.
+         */
+        public void writeTo(Writer out) {
+            try {
+                out.write(buf, 0, len);
+            } catch (IOException e) {
+                // PrintWriter does not throw; other writers only lose output
+            }
+            len = 0;
+        }
+    }
 
-                for (int j = 0; j < interfacelist.length; j++) {
-                    out.print(javaclassname(interfacelist[j]));
+    /**
+     * Table driven bytecode decoder. The static tables give the operand
+     * format, length and constant pool kind of every opcode; a cursor walks
+     * a code buffer and exposes the decoded pc, opcode and operands through
+     * plain int fields, so stepping through a method allocates nothing.
+     */
+    public static class BytecodeCursor {
 
-                    if ((j + 1) < interfacelist.length) {
-                        out.print(",");
-                    }
+        // Operand formats.
+        public static final int F_NONE = 0;
+
+        public static final int F_LOCAL = 1;
+
+        public static final int F_IINC = 2;
+
+        public static final int F_BYTE = 3;
+
+        public static final int F_SHORT = 4;
+
+        public static final int F_NEWARRAY = 5;
+
+        public static final int F_CP1 = 6;
+
+        public static final int F_CP2 = 7;
+
+        public static final int F_INVOKEINTERFACE = 8;
+
+        public static final int F_MULTIANEWARRAY = 9;
+
+        public static final int F_BRANCH2 = 10;
+
+        public static final int F_BRANCH4 = 11;
+
+        public static final int F_TABLESWITCH = 12;
+
+        public static final int F_LOOKUPSWITCH = 13;
+
+        public static final int F_WIDE = 14;
+
+        public static final int F_PRIV = 15;
+
+        public static final int F_INVALID = 16;
+
+        // Constant pool kinds referenced by an operand.
+        public static final int CP_NONE = 0;
+
+        public static final int CP_LOADABLE = 1;
+
+        public static final int CP_CLASS = 2;
+
+        public static final int CP_FIELD = 3;
+
+        public static final int CP_METHOD = 4;
+
+        public static final int CP_INTERFACEMETHOD = 5;
+
+        public static final int CP_INVOKEDYNAMIC = 6;
+
+        private static final byte[] FORMAT = new byte[256];
+
+        private static final byte[] LENGTH = new byte[256];
+
+        private static final byte[] CPKIND = new byte[256];
+
+        private static final boolean[] WIDE_VALID = new boolean[256];
+
+        static {
+            for (int op = 0; op < 256; op++) {
+                if (op == RuntimeConstants.opc_nonpriv || op == RuntimeConstants.opc_priv) {
+                    define(op, F_PRIV, 2, CP_NONE);
+                } else if (op == RuntimeConstants.opc_wide) {
+                    define(op, F_WIDE, 0, CP_NONE);
+                } else if (Tables.opcName(op) == null || op > RuntimeConstants.opc_jsr_w) {
+                    define(op, F_INVALID, 1, CP_NONE);
+                } else {
+                    define(op, F_NONE, 1, CP_NONE);
                 }
+                WIDE_VALID[op] = Tables.opcName((RuntimeConstants.opc_wide << 8) + op) != null;
             }
-
-            // Print class attribute information.
-            if ((env.showallAttr) || (env.showVerbose)) {
-                printClassAttributes();
+            final int[] locals = { RuntimeConstants.opc_aload, RuntimeConstants.opc_astore,
+                    RuntimeConstants.opc_fload, RuntimeConstants.opc_fstore, RuntimeConstants.opc_iload,
+                    RuntimeConstants.opc_istore, RuntimeConstants.opc_lload, RuntimeConstants.opc_lstore,
+                    RuntimeConstants.opc_dload, RuntimeConstants.opc_dstore, RuntimeConstants.opc_ret };
+            for (int i = 0; i < locals.length; i++) {
+                define(locals[i], F_LOCAL, 2, CP_NONE);
             }
-            // Print verbose output.
-            if (env.showVerbose) {
-                printverbosecls();
+            final int[] branches = { RuntimeConstants.opc_jsr, RuntimeConstants.opc_goto, RuntimeConstants.opc_ifeq,
+                    RuntimeConstants.opc_ifge, RuntimeConstants.opc_ifgt, RuntimeConstants.opc_ifle,
+                    RuntimeConstants.opc_iflt, RuntimeConstants.opc_ifne, RuntimeConstants.opc_if_icmpeq,
+                    RuntimeConstants.opc_if_icmpne, RuntimeConstants.opc_if_icmpge, RuntimeConstants.opc_if_icmpgt,
+                    RuntimeConstants.opc_if_icmple, RuntimeConstants.opc_if_icmplt, RuntimeConstants.opc_if_acmpeq,
+                    RuntimeConstants.opc_if_acmpne, RuntimeConstants.opc_ifnull, RuntimeConstants.opc_ifnonnull };
+            for (int i = 0; i < branches.length; i++) {
+                define(branches[i], F_BRANCH2, 3, CP_NONE);
             }
-            out.println("{");
+            define(RuntimeConstants.opc_jsr_w, F_BRANCH4, 5, CP_NONE);
+            define(RuntimeConstants.opc_goto_w, F_BRANCH4, 5, CP_NONE);
+            define(RuntimeConstants.opc_iinc, F_IINC, 3, CP_NONE);
+            define(RuntimeConstants.opc_bipush, F_BYTE, 2, CP_NONE);
+            define(RuntimeConstants.opc_sipush, F_SHORT, 3, CP_NONE);
+            define(RuntimeConstants.opc_newarray, F_NEWARRAY, 2, CP_NONE);
+            define(RuntimeConstants.opc_tableswitch, F_TABLESWITCH, 0, CP_NONE);
+            define(RuntimeConstants.opc_lookupswitch, F_LOOKUPSWITCH, 0, CP_NONE);
+            define(RuntimeConstants.opc_ldc, F_CP1, 2, CP_LOADABLE);
+            define(RuntimeConstants.opc_ldc_w, F_CP2, 3, CP_LOADABLE);
+            define(RuntimeConstants.opc_ldc2_w, F_CP2, 3, CP_LOADABLE);
+            define(RuntimeConstants.opc_anewarray, F_CP2, 3, CP_CLASS);
+            define(RuntimeConstants.opc_instanceof, F_CP2, 3, CP_CLASS);
+            define(RuntimeConstants.opc_checkcast, F_CP2, 3, CP_CLASS);
+            define(RuntimeConstants.opc_new, F_CP2, 3, CP_CLASS);
+            define(RuntimeConstants.opc_putstatic, F_CP2, 3, CP_FIELD);
+            define(RuntimeConstants.opc_getstatic, F_CP2, 3, CP_FIELD);
+            define(RuntimeConstants.opc_putfield, F_CP2, 3, CP_FIELD);
+            define(RuntimeConstants.opc_getfield, F_CP2, 3, CP_FIELD);
+            define(RuntimeConstants.opc_invokevirtual, F_CP2, 3, CP_METHOD);
+            define(RuntimeConstants.opc_invokespecial, F_CP2, 3, CP_METHOD);
+            define(RuntimeConstants.opc_invokestatic, F_CP2, 3, CP_METHOD);
+            define(RuntimeConstants.opc_invokeinterface, F_INVOKEINTERFACE, 5, CP_INTERFACEMETHOD);
+            // two reserved zero bytes follow the index
+            define(RuntimeConstants.opc_invokedynamic, F_CP2, 5, CP_INVOKEDYNAMIC);
+            define(RuntimeConstants.opc_multianewarray, F_MULTIANEWARRAY, 4, CP_CLASS);
+        }
+
+        private static void define(int op, int format, int length, int cpKind) {
+            FORMAT[op] = (byte) format;
+            LENGTH[op] = (byte) length;
+            CPKIND[op] = (byte) cpKind;
         }
 
         /**
-         * Print verbose output.
+         * Return the operand format of an opcode.
          */
-        public void printverbosecls() {
-            out.println("  minor version: " + cls.getMinor_version());
-            out.println("  major version: " + cls.getMajor_version());
-            out.println("  Constant pool:");
-            printcp();
-            env.showallAttr = true;
+        public static int format(int opcode) {
+            return FORMAT[opcode & 0xFF];
         }
 
         /**
-         * Print class attribute information.
+         * Return the length of an instruction, or 0 when it depends on the
+         * operands (switches and wide).
          */
-        public void printClassAttributes() {
-            out.println();
-            AttrData[] clsattrs = cls.getAttributes();
-            for (int i = 0; i < clsattrs.length; i++) {
-                String clsattrname = clsattrs[i].getAttrName();
-                if (clsattrname.equals("SourceFile")) {
-                    out.println("  SourceFile: " + cls.getSourceName());
-                } else if (clsattrname.equals("InnerClasses")) {
-                    printInnerClasses();
-                } else {
-                    printAttrData(clsattrs[i]);
-                }
-            }
+        public static int length(int opcode) {
+            return LENGTH[opcode & 0xFF];
         }
 
         /**
-         * Print the fields
+         * Return the CP_ kind of the constant an opcode refers to.
          */
-        public void printfields() {
-            FieldData[] fields = cls.getFields();
-            for (int f = 0; f < fields.length; f++) {
-                String[] accflags = fields[f].getAccess();
-                if (checkAccess(accflags)) {
-                    if (!(env.showLineAndLocal || env.showDisassembled || env.showVerbose || env.showInternalSigs || env.showallAttr)) {
-                        out.print("    ");
-                    }
-                    printAccess(accflags);
-                    out.println(fields[f].getType() + " " + fields[f].getName() + ";");
-                    if (env.showInternalSigs) {
-                        out.println("  Signature: " + (fields[f].getInternalSig()));
-                    }
+        public static int cpKind(int opcode) {
+            return CPKIND[opcode & 0xFF];
+        }
 
-                    // print field attribute information.
-                    if (env.showallAttr) {
-                        printFieldAttributes(fields[f]);
+        private ByteBuffer code;
 
-                    }
-                    if ((env.showDisassembled) || (env.showLineAndLocal)) {
-                        out.println();
-                    }
-                }
+        private int pc, length, opcode, opcode2, format;
+
+        private int index, value, count, target;
+
+        private int tb, low, high, defaultTarget;
+
+        /**
+         * Start walking code from pc 0.
+         */
+        public void reset(ByteBuffer code) {
+            this.code = code;
+            this.pc = 0;
+            this.length = 0;
+        }
+
+        /**
+         * Step to the next instruction. Return false at the end of the code.
+         */
+        public boolean next() {
+            final int npc = pc + length;
+            if (npc >= code.limit()) {
+                pc = npc;
+                length = 0;
+                return false;
             }
+            decode(npc);
+            return true;
         }
 
-        /* print field attribute information. */
-        public void printFieldAttributes(FieldData field) {
-            Vector fieldattrs = field.getAttributes();
-            for (int j = 0; j < fieldattrs.size(); j++) {
-                String fieldattrname = ((AttrData) fieldattrs.elementAt(j)).getAttrName();
-                if (fieldattrname.equals("ConstantValue")) {
-                    printConstantValue(field);
-                } else if (fieldattrname.equals("Deprecated")) {
-                    out.println("Deprecated: " + field.isDeprecated());
-                } else if (fieldattrname.equals("Synthetic")) {
-                    out.println("  Synthetic: " + field.isSynthetic());
+        /**
+         * Decode the instruction at pc and return its length.
+         */
+        public int decode(int pc) {
+            this.pc = pc;
+            opcode = code.get(pc) & 0xFF;
+            format = FORMAT[opcode];
+            length = LENGTH[opcode];
+            switch (format) {
+            case F_PRIV:
+                opcode2 = code.get(pc + 1) & 0xFF;
+                break;
+            case F_WIDE:
+                opcode2 = code.get(pc + 1) & 0xFF;
+                if (!WIDE_VALID[opcode2]) {
+                    format = F_INVALID;
+                    length = 1;
+                    break;
+                }
+                index = code.getShort(pc + 2) & 0xFFFF;
+                if (opcode2 == RuntimeConstants.opc_iinc) {
+                    value = code.getShort(pc + 4);
+                    length = 6;
                 } else {
-                    printAttrData((AttrData) fieldattrs.elementAt(j));
+                    length = 4;
                 }
+                break;
+            case F_LOCAL:
+                index = code.get(pc + 1) & 0xFF;
+                break;
+            case F_IINC:
+                index = code.get(pc + 1) & 0xFF;
+                value = code.get(pc + 2);
+                break;
+            case F_BYTE:
+                value = code.get(pc + 1);
+                break;
+            case F_SHORT:
+                value = code.getShort(pc + 1);
+                break;
+            case F_NEWARRAY:
+                value = code.get(pc + 1) & 0xFF;
+                break;
+            case F_CP1:
+                index = code.get(pc + 1) & 0xFF;
+                break;
+            case F_CP2:
+                index = code.getShort(pc + 1) & 0xFFFF;
+                break;
+            case F_INVOKEINTERFACE:
+            case F_MULTIANEWARRAY:
+                index = code.getShort(pc + 1) & 0xFFFF;
+                count = code.get(pc + 3) & 0xFF;
+                break;
+            case F_BRANCH2:
+                target = pc + code.getShort(pc + 1);
+                break;
+            case F_BRANCH4:
+                target = pc + code.getInt(pc + 1);
+                break;
+            case F_TABLESWITCH:
+                tb = (pc + 4) & ~3;
+                defaultTarget = pc + code.getInt(tb);
+                low = code.getInt(tb + 4);
+                high = code.getInt(tb + 8);
+                length = tb - pc + 16 + (high - low) * 4;
+                break;
+            case F_LOOKUPSWITCH:
+                tb = (pc + 4) & ~3;
+                defaultTarget = pc + code.getInt(tb);
+                high = code.getInt(tb + 4);
+                length = tb - pc + (high + 1) * 8;
+                break;
             }
-            out.println();
+            return length;
+        }
+
+        public int pc() {
+            return pc;
+        }
+
+        public int length() {
+            return length;
         }
 
         /**
-         * Print the methods
+         * Return the opcode; for wide, nonpriv and priv see opcode2.
          */
-        public void printMethods() {
-            MethodData[] methods = cls.getMethods();
-            for (int m = 0; m < methods.length; m++) {
-                String[] accflags = methods[m].getAccess();
-                if (checkAccess(accflags)) {
-                    if (!(env.showLineAndLocal || env.showDisassembled || env.showVerbose || env.showInternalSigs || env.showallAttr)) {
-                        out.print("    ");
-                    }
-                    printMethodSignature(methods[m], accflags);
-                    printExceptions(methods[m]);
-                    out.println(";");
+        public int opcode() {
+            return opcode;
+        }
 
-                    // Print internal signature of method.
-                    if (env.showInternalSigs) {
-                        out.println("  Signature: " + (methods[m].getInternalSig()));
-                    }
+        /**
+         * Return the second opcode byte of wide, nonpriv and priv.
+         */
+        public int opcode2() {
+            return opcode2;
+        }
 
-                    // Print disassembled code.
-                    if (env.showDisassembled && !env.showallAttr) {
-                        printcodeSequence(methods[m]);
-                        printExceptionTable(methods[m]);
-                        out.println();
-                    }
+        public int format() {
+            return format;
+        }
 
-                    // Print line and local variable attribute information.
-                    if (env.showLineAndLocal) {
-                        printLineNumTable(methods[m]);
-                        printLocVarTable(methods[m]);
-                        out.println();
-                    }
+        /**
+         * Return the constant pool index or local variable slot.
+         */
+        public int index() {
+            return index;
+        }
 
-                    // Print method attribute information.
-                    if (env.showallAttr) {
-                        printMethodAttributes(methods[m]);
-                    }
-                }
-            }
+        /**
+         * Return the immediate value of bipush, sipush, iinc and newarray.
+         */
+        public int value() {
+            return value;
         }
 
         /**
-         * Print method signature.
+         * Return the argument count of invokeinterface or the dimensions of
+         * multianewarray.
          */
-        public void printMethodSignature(MethodData method, String[] accflags) {
-            printAccess(accflags);
+        public int count() {
+            return count;
+        }
 
-            if ((method.getName()).equals("<init>")) {
-                out.print(javaclassname(cls.getClassName()));
-                out.print(method.getParameters());
-            } else if ((method.getName()).equals("<clinit>")) {
-                out.print("{}");
-            } else {
-                out.print(method.getReturnType() + " ");
-                out.print(method.getName());
-                out.print(method.getParameters());
-            }
+        /**
+         * Return the absolute target of a branch.
+         */
+        public int target() {
+            return target;
         }
 
         /**
-         * print method attribute information.
+         * Return the number of switch entries, excluding the default.
          */
-        public void printMethodAttributes(MethodData method) {
-            Vector methodattrs = method.getAttributes();
-            Vector codeattrs = method.getCodeAttributes();
-            for (int k = 0; k < methodattrs.size(); k++) {
-                String methodattrname = ((AttrData) methodattrs.elementAt(k)).getAttrName();
-                if (methodattrname.equals("Code")) {
-                    printcodeSequence(method);
-                    printExceptionTable(method);
-                    for (int c = 0; c < codeattrs.size(); c++) {
-                        String codeattrname = ((AttrData) codeattrs.elementAt(c)).getAttrName();
-                        if (codeattrname.equals("LineNumberTable")) {
-                            printLineNumTable(method);
-                        } else if (codeattrname.equals("LocalVariableTable")) {
-                            printLocVarTable(method);
-                        } else if (codeattrname.equals("StackMapTable")) {
-                            // Java SE JSR 202 stack map tables
-                            printStackMapTable(method);
-                        } else if (codeattrname.equals("StackMap")) {
-                            // Java ME CLDC stack maps
-                            printStackMap(method);
-                        } else {
-                            printAttrData((AttrData) codeattrs.elementAt(c));
-                        }
-                    }
-                } else if (methodattrname.equals("Exceptions")) {
-                    out.println("  Exceptions: ");
-                    printExceptions(method);
-                } else if (methodattrname.equals("Deprecated")) {
-                    out.println("  Deprecated: " + method.isDeprecated());
-                } else if (methodattrname.equals("Synthetic")) {
-                    out.println("  Synthetic: " + method.isSynthetic());
-                } else {
-                    printAttrData((AttrData) methodattrs.elementAt(k));
-                }
-            }
-            out.println();
+        public int switchSize() {
+            return (format == F_TABLESWITCH) ? high - low + 1 : high;
         }
 
-        /**
-         * Print exceptions.
-         */
-        public void printExceptions(MethodData method) {
-            int[] exc_index_table = method.get_exc_index_table();
-            if (exc_index_table != null) {
-                if (!(env.showLineAndLocal || env.showDisassembled || env.showVerbose || env.showInternalSigs || env.showallAttr)) {
-                    out.print("    ");
-                }
-                out.print("   throws ");
-                int k;
-                int l = exc_index_table.length;
+        public int switchLow() {
+            return low;
+        }
 
-                for (k = 0; k < l; k++) {
-                    out.print(javaclassname(cls.getClassName(exc_index_table[k])));
-                    if (k < l - 1)
-                        out.print(", ");
-                }
-            }
+        public int switchHigh() {
+            return high;
         }
 
-        /**
-         * Print code sequence.
-         */
-        public void printcodeSequence(MethodData method) {
-            code = method.getCode();
-            if (code != null) {
-                out.println("  Code:");
-                if (env.showVerbose) {
-                    printVerboseHeader(method);
-                }
+        public int switchKey(int i) {
+            return (format == F_TABLESWITCH) ? low + i : code.getInt(tb + 8 + i * 8);
+        }
 
-                for (int pc = 0; pc < code.length;) {
-                    out.print("   " + pc + ":\t");
-                    pc = pc + printInstr(pc);
-                    out.println();
-                }
-            }
+        public int switchTarget(int i) {
+            return pc + ((format == F_TABLESWITCH) ? code.getInt(tb + 12 + 4 * i) : code.getInt(tb + 12 + i * 8));
         }
 
-        /**
-         * Print instructions.
-         */
-        public int printInstr(int pc) {
-            int opcode = getUbyte(pc);
-            int opcode2;
-            String mnem;
-            switch (opcode) {
-            case RuntimeConstants.opc_nonpriv:
-            case RuntimeConstants.opc_priv:
-                opcode2 = getUbyte(pc + 1);
-                mnem = Tables.opcName((opcode << 8) + opcode2);
-                if (mnem == null)
-                    // assume all (even nonexistent) priv and nonpriv
-                    // instructions
-                    // are 2 bytes long
-                    mnem = Tables.opcName(opcode) + " " + opcode2;
-                out.print(mnem);
-                return 2;
-            case RuntimeConstants.opc_wide: {
-                opcode2 = getUbyte(pc + 1);
-                mnem = Tables.opcName((opcode << 8) + opcode2);
-                if (mnem == null) {
-                    // nonexistent opcode - but we have to print something
-                    out.print("bytecode " + opcode);
-                    return 1;
-                }
-                out.print(mnem + " " + getUShort(pc + 2));
-                if (opcode2 == RuntimeConstants.opc_iinc) {
-                    out.print(", " + getShort(pc + 4));
-                    return 6;
-                }
-                return 4;
-            }
-            }
-            mnem = Tables.opcName(opcode);
-            if (mnem == null) {
-                // nonexistent opcode - but we have to print something
-                out.print("bytecode " + opcode);
-                return 1;
-            }
-            if (opcode > RuntimeConstants.opc_jsr_w) {
-                // pseudo opcodes should be printed as bytecodes
-                out.print("bytecode " + opcode);
-                return 1;
-            }
-            out.print(Tables.opcName(opcode));
-            switch (opcode) {
-            case RuntimeConstants.opc_aload:
-            case RuntimeConstants.opc_astore:
-            case RuntimeConstants.opc_fload:
-            case RuntimeConstants.opc_fstore:
-            case RuntimeConstants.opc_iload:
-            case RuntimeConstants.opc_istore:
-            case RuntimeConstants.opc_lload:
-            case RuntimeConstants.opc_lstore:
-            case RuntimeConstants.opc_dload:
-            case RuntimeConstants.opc_dstore:
-            case RuntimeConstants.opc_ret:
-                out.print("\t" + getUbyte(pc + 1));
-                return 2;
-            case RuntimeConstants.opc_iinc:
-                out.print("\t" + getUbyte(pc + 1) + ", " + getbyte(pc + 2));
-                return 3;
-            case RuntimeConstants.opc_tableswitch: {
-                int tb = align(pc + 1);
-                int default_skip = getInt(tb); /* default skip pamount */
-                int low = getInt(tb + 4);
-                int high = getInt(tb + 8);
-                int count = high - low;
-                out.print("{ //" + low + " to " + high);
-                for (int i = 0; i <= count; i++)
-                    out.print("\n\t\t" + (i + low) + ": " + lP + (pc + getInt(tb + 12 + 4 * i)) + ";");
-                out.print("\n\t\tdefault: " + lP + (default_skip + pc) + " }");
-                return tb - pc + 16 + count * 4;
-            }
-
-            case RuntimeConstants.opc_lookupswitch: {
-                int tb = align(pc + 1);
-                int default_skip = getInt(tb);
-                int npairs = getInt(tb + 4);
-                out.print("{ //" + npairs);
-                for (int i = 1; i <= npairs; i++)
-                    out.print("\n\t\t" + getInt(tb + i * 8) + ": " + lP + (pc + getInt(tb + 4 + i * 8)) + ";");
-                out.print("\n\t\tdefault: " + lP + (default_skip + pc) + " }");
-                return tb - pc + (npairs + 1) * 8;
-            }
-            case RuntimeConstants.opc_newarray:
-                int type = getUbyte(pc + 1);
-                switch (type) {
-                case RuntimeConstants.T_BOOLEAN:
-                    out.print(" boolean");
-                    break;
-                case RuntimeConstants.T_BYTE:
-                    out.print(" byte");
-                    break;
-                case RuntimeConstants.T_CHAR:
-                    out.print(" char");
-                    break;
-                case RuntimeConstants.T_SHORT:
-                    out.print(" short");
-                    break;
-                case RuntimeConstants.T_INT:
-                    out.print(" int");
-                    break;
-                case RuntimeConstants.T_LONG:
-                    out.print(" long");
-                    break;
-                case RuntimeConstants.T_FLOAT:
-                    out.print(" float");
-                    break;
-                case RuntimeConstants.T_DOUBLE:
-                    out.print(" double");
-                    break;
-                case RuntimeConstants.T_CLASS:
-                    out.print(" class");
-                    break;
-                default:
-                    out.print(" BOGUS TYPE:" + type);
-                }
-                return 2;
+        public int switchDefault() {
+            return defaultTarget;
+        }
+    }
 
-            case RuntimeConstants.opc_anewarray: {
-                int index = getUShort(pc + 1);
-                out.print("\t#" + index + "; //");
-                PrintConstant(index);
-                return 3;
-            }
+    /**
+     * Output target for JavapPrinter. Plain text arrives through the Writer
+     * methods; names the printer recognizes (opcodes, constant pool
+     * references, access flags, type names, branch labels and section
+     * headings) arrive through token, so markup is produced while printing.
+     */
+    public static abstract class JavapRenderer extends Writer {
 
-            case RuntimeConstants.opc_sipush:
-                out.print("\t" + getShort(pc + 1));
-                return 3;
+        // Token kinds.
+        public static final int TOKEN_OPCODE = 0;
 
-            case RuntimeConstants.opc_bipush:
-                out.print("\t" + getbyte(pc + 1));
-                return 2;
+        public static final int TOKEN_CP_REF = 1;
 
-            case RuntimeConstants.opc_ldc: {
-                int index = getUbyte(pc + 1);
-                out.print("\t#" + index + "; //");
-                PrintConstant(index);
-                return 2;
-            }
+        public static final int TOKEN_ACCESS = 2;
 
-            case RuntimeConstants.opc_ldc_w:
-            case RuntimeConstants.opc_ldc2_w:
-            case RuntimeConstants.opc_instanceof:
-            case RuntimeConstants.opc_checkcast:
-            case RuntimeConstants.opc_new:
-            case RuntimeConstants.opc_putstatic:
-            case RuntimeConstants.opc_getstatic:
-            case RuntimeConstants.opc_putfield:
-            case RuntimeConstants.opc_getfield:
-            case RuntimeConstants.opc_invokevirtual:
-            case RuntimeConstants.opc_invokespecial:
-            case RuntimeConstants.opc_invokestatic: {
-                int index = getUShort(pc + 1);
-                out.print("\t#" + index + "; //");
-                PrintConstant(index);
-                return 3;
-            }
-
-            case RuntimeConstants.opc_invokeinterface: {
-                int index = getUShort(pc + 1), nargs = getUbyte(pc + 3);
-                out.print("\t#" + index + ",  " + nargs + "; //");
-                PrintConstant(index);
-                return 5;
-            }
-
-            case RuntimeConstants.opc_multianewarray: {
-                int index = getUShort(pc + 1), dimensions = getUbyte(pc + 3);
-                out.print("\t#" + index + ",  " + dimensions + "; //");
-                PrintConstant(index);
-                return 4;
-            }
-            case RuntimeConstants.opc_jsr:
-            case RuntimeConstants.opc_goto:
-            case RuntimeConstants.opc_ifeq:
-            case RuntimeConstants.opc_ifge:
-            case RuntimeConstants.opc_ifgt:
-            case RuntimeConstants.opc_ifle:
-            case RuntimeConstants.opc_iflt:
-            case RuntimeConstants.opc_ifne:
-            case RuntimeConstants.opc_if_icmpeq:
-            case RuntimeConstants.opc_if_icmpne:
-            case RuntimeConstants.opc_if_icmpge:
-            case RuntimeConstants.opc_if_icmpgt:
-            case RuntimeConstants.opc_if_icmple:
-            case RuntimeConstants.opc_if_icmplt:
-            case RuntimeConstants.opc_if_acmpeq:
-            case RuntimeConstants.opc_if_acmpne:
-            case RuntimeConstants.opc_ifnull:
-            case RuntimeConstants.opc_ifnonnull:
-                out.print("\t" + lP + (pc + getShort(pc + 1)));
-                return 3;
-
-            case RuntimeConstants.opc_jsr_w:
-            case RuntimeConstants.opc_goto_w:
-                out.print("\t" + lP + (pc + getInt(pc + 1)));
-                return 5;
+        public static final int TOKEN_TYPE = 3;
 
-            default:
-                return 1;
-            }
-        }
+        public static final int TOKEN_LABEL = 4;
 
-        /**
-         * Print code attribute details.
-         */
-        public void printVerboseHeader(MethodData method) {
-            int argCount = method.getArgumentlength();
-            if (!method.isStatic())
-                ++argCount; // for 'this'
+        public static final int TOKEN_SECTION = 5;
 
-            out.println("   Stack=" + method.getMaxStack() + ", Locals=" + method.getMaxLocals() + ", Args_size="
-                    + argCount);
+        static final String[] TOKEN_NAMES = { "opcode", "cp-ref", "access", "type", "label", "section" };
+
+        // Output formats, see create.
+        public static final int FORMAT_PLAIN = 0;
+
+        public static final int FORMAT_HTML = 1;
+
+        public static final int FORMAT_JSON = 2;
+
+        protected final Writer target;
 
+        private boolean trouble = false;
+
+        protected JavapRenderer(Writer target) {
+            this.target = target;
         }
 
         /**
-         * Print the exception table for this method code
+         * Return a renderer for one of the FORMAT_ constants.
          */
-        void printExceptionTable(MethodData method) {// throws IOException
-            Vector exception_table = method.getexception_table();
-            if (exception_table.size() > 0) {
-                out.println("  Exception table:");
-                out.println("   from   to  target type");
-                for (int idx = 0; idx < exception_table.size(); ++idx) {
-                    TrapData handler = (TrapData) exception_table.elementAt(idx);
-                    printFixedWidthInt(handler.start_pc, 6);
-                    printFixedWidthInt(handler.end_pc, 6);
-                    printFixedWidthInt(handler.handler_pc, 6);
-                    out.print("   ");
-                    int catch_cpx = handler.catch_cpx;
-                    if (catch_cpx == 0) {
-                        out.println("any");
-                    } else {
-                        out.print("Class ");
-                        out.println(cls.getClassName(catch_cpx));
-                        out.println("");
-                    }
-                }
+        public static JavapRenderer create(int format, Writer target) {
+            switch (format) {
+            case FORMAT_PLAIN:
+                return new PlainRenderer(target);
+            case FORMAT_HTML:
+                return new HtmlRenderer(target);
+            case FORMAT_JSON:
+                return new JsonRenderer(target);
+            default:
+                throw new IllegalArgumentException("invalid format: " + format);
             }
         }
 
         /**
-         * Print LineNumberTable attribute information.
+         * Emit a token of one of the TOKEN_ kinds.
          */
-        public void printLineNumTable(MethodData method) {
-            int numlines = method.getnumlines();
-            Vector lin_num_tb = method.getlin_num_tb();
-            if (lin_num_tb.size() > 0) {
-                out.println("  LineNumberTable: ");
-                for (int i = 0; i < numlines; i++) {
-                    LineNumData linnumtb_entry = (LineNumData) lin_num_tb.elementAt(i);
-                    out.println("   line " + linnumtb_entry.line_number + ": " + linnumtb_entry.start_pc);
-                }
+        public void token(int kind, String text) {
+            try {
+                writeToken(kind, text);
+            } catch (IOException e) {
+                trouble = true;
             }
-            out.println();
         }
 
+        protected abstract void writeToken(int kind, String text) throws IOException;
+
         /**
-         * Print LocalVariableTable attribute information.
+         * Complete the document, e.g. close a JSON array. The target is
+         * flushed but left open.
          */
-        public void printLocVarTable(MethodData method) {
-            int siz = method.getloc_var_tbsize();
-            if (siz > 0) {
-                out.println("  LocalVariableTable: ");
-                out.print("   ");
-                out.println("Start  Length  Slot  Name   Signature");
-            }
-            Vector loc_var_tb = method.getloc_var_tb();
-
-            for (int i = 0; i < siz; i++) {
-                LocVarData entry = (LocVarData) loc_var_tb.elementAt(i);
-
-                out.println("   " + entry.start_pc + "      " + entry.length + "      " + entry.slot + "    "
-                        + cls.StringValue(entry.name_cpx) + "       " + cls.StringValue(entry.sig_cpx));
-            }
-            out.println();
+        public void finish() throws IOException {
+            flush();
         }
 
         /**
-         * Print StackMap attribute information.
+         * Return true if writing a token to the target failed.
          */
-        public void printStackMap(MethodData method) {
-            StackMapData[] stack_map_tb = method.getStackMap();
-            int number_of_entries = stack_map_tb.length;
-            if (number_of_entries > 0) {
-                out.println("  StackMap: number_of_entries = " + number_of_entries);
+        public boolean checkError() {
+            return trouble;
+        }
 
-                for (StackMapData frame : stack_map_tb) {
-                    frame.print(this);
-                }
-            }
-            out.println();
+        public void flush() throws IOException {
+            target.flush();
         }
 
-        /**
-         * Print StackMapTable attribute information.
-         */
-        public void printStackMapTable(MethodData method) {
-            StackMapTableData[] stack_map_tb = method.getStackMapTable();
-            int number_of_entries = stack_map_tb.length;
-            if (number_of_entries > 0) {
-                out.println("  StackMapTable: number_of_entries = " + number_of_entries);
+        public void close() throws IOException {
+            finish();
+            target.close();
+        }
+    }
 
-                for (StackMapTableData frame : stack_map_tb) {
-                    frame.print(this);
-                }
-            }
-            out.println();
+    /**
+     * Writes the listing as plain text, exactly as javap prints it.
+     */
+    public static class PlainRenderer extends JavapRenderer {
+
+        public PlainRenderer(Writer target) {
+            super(target);
         }
 
-        void printMap(String name, int[] map) {
-            out.print(name);
-            for (int i = 0; i < map.length; i++) {
-                int fulltype = map[i];
-                int type = fulltype & 0xFF;
-                int argument = fulltype >> 8;
-                switch (type) {
-                case RuntimeConstants.ITEM_Object:
-                    out.print(" ");
-                    PrintConstant(argument);
-                    break;
-                case RuntimeConstants.ITEM_NewObject:
-                    out.print(" " + Tables.mapTypeName(type));
-                    out.print(" " + argument);
-                    break;
-                default:
-                    out.print(" " + Tables.mapTypeName(type));
-                }
-                out.print((i == (map.length - 1) ? ' ' : ','));
-            }
-            out.println("]");
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            target.write(cbuf, off, len);
         }
 
-        /**
-         * Print ConstantValue attribute information.
-         */
-        public void printConstantValue(FieldData field) {
-            out.print("  Constant value: ");
-            int cpx = (field.getConstantValueIndex());
-            byte tag = 0;
-            try {
-                tag = cls.getTag(cpx);
+        public void write(String str, int off, int len) throws IOException {
+            target.write(str, off, len);
+        }
 
-            } catch (IndexOutOfBoundsException e) {
-                out.print("Error:");
-                return;
-            }
-            switch (tag) {
-            case RuntimeConstants.CONSTANT_METHOD:
-            case RuntimeConstants.CONSTANT_INTERFACEMETHOD:
-            case RuntimeConstants.CONSTANT_FIELD: {
-                CPX2 x = (CPX2) (cls.getCpoolEntry(cpx));
-                if (x.cpx1 == cls.getthis_cpx()) {
-                    // don't print class part for local references
-                    cpx = x.cpx2;
-                }
-            }
-            }
-            out.print(cls.TagString(tag) + " " + cls.StringValue(cpx));
+        protected void writeToken(int kind, String text) throws IOException {
+            target.write(text);
         }
+    }
 
-        /**
+    /**
+     * Writes the listing as escaped HTML with each token wrapped in a span
+     * carrying a javap-kind class and an inline style.
+     */
+    public static class HtmlRenderer extends JavapRenderer {
+
+        private static final String[] STYLES = { "color:#7F0055; font-weight:bold", "color:#3F7F5F",
+                "color:#7F0055; font-weight:bold", "color:#0000C6", "color:#BD8608",
+                "text-decoration:underline;color:#7F0055; font-weight:bold" };
+
+        public HtmlRenderer(Writer target) {
+            super(target);
+        }
+
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                escape(cbuf[i]);
+            }
+        }
+
+        public void write(String str, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                escape(str.charAt(i));
+            }
+        }
+
+        protected void writeToken(int kind, String text) throws IOException {
+            target.write("<span class='javap-");
+            target.write(TOKEN_NAMES[kind]);
+            target.write("' style='");
+            target.write(STYLES[kind]);
+            target.write("'>");
+            write(text, 0, text.length());
+            target.write("</span>");
+        }
+
+        private void escape(char c) throws IOException {
+            switch (c) {
+            case '<':
+                target.write("&lt;");
+                break;
+            case '>':
+                target.write("&gt;");
+                break;
+            case '&':
+                target.write("&amp;");
+                break;
+            case '"':
+                target.write("&quot;");
+                break;
+            default:
+                target.write(c);
+            }
+        }
+    }
+
+    /**
+     * Writes the listing as a JSON array of {"kind":...,"text":...}
+     * objects. Consecutive plain text is merged into one "text" object.
+     */
+    public static class JsonRenderer extends JavapRenderer {
+
+        private final StringBuilder pending = new StringBuilder();
+
+        private boolean started = false;
+
+        public JsonRenderer(Writer target) {
+            super(target);
+        }
+
+        public void write(char[] cbuf, int off, int len) {
+            pending.append(cbuf, off, len);
+        }
+
+        public void write(String str, int off, int len) {
+            pending.append(str, off, off + len);
+        }
+
+        protected void writeToken(int kind, String text) throws IOException {
+            writePending();
+            writeObject(TOKEN_NAMES[kind], text);
+        }
+
+        public void finish() throws IOException {
+            writePending();
+            target.write(started ? "]" : "[]");
+            started = false;
+            super.finish();
+        }
+
+        private void writePending() throws IOException {
+            if (pending.length() > 0) {
+                writeObject("text", pending);
+                pending.setLength(0);
+            }
+        }
+
+        private void writeObject(String kind, CharSequence text) throws IOException {
+            target.write(started ? ",\n{\"kind\":\"" : "[{\"kind\":\"");
+            started = true;
+            target.write(kind);
+            target.write("\",\"text\":\"");
+            for (int i = 0; i < text.length(); i++) {
+                final char c = text.charAt(i);
+                switch (c) {
+                case '"':
+                    target.write("\\\"");
+                    break;
+                case '\\':
+                    target.write("\\\\");
+                    break;
+                case '\n':
+                    target.write("\\n");
+                    break;
+                case '\r':
+                    target.write("\\r");
+                    break;
+                case '\t':
+                    target.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        target.write("\\u00");
+                        target.write(Character.forDigit(c >> 4, 16));
+                        target.write(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        target.write(c);
+                    }
+                }
+            }
+            target.write("\"}");
+        }
+    }
+
+    // From: http://hg.openjdk.java.net/jdk7/jaxp/langtools/
+
+    /**
+     * Program to print information about class files
+     * 
+     * @author Sucheta Dambalkar
+     */
+    public static class JavapPrinter {
+
+        JavapEnvironment env;
+
+        ClassData cls;
+
+        ByteBuffer code;
+
+        String lP = "";
+
+        PrintWriter out;
+
+        /**
+         * Receives tokens when printing through a renderer, otherwise null.
+         */
+        JavapRenderer renderer;
+
+        /**
+         * Flush out after each method, for callers streaming the listing.
+         */
+        boolean flushPerMethod = false;
+
+        final InstrSink sink = new InstrSink(256);
+
+        final BytecodeCursor cursor = new BytecodeCursor();
+
+        public JavapPrinter(InputStream cname, PrintWriter out, JavapEnvironment env) {
+            this.out = out;
+            this.cls = new ClassData(cname);
+            this.env = env;
+        }
+
+        public JavapPrinter(ByteBuffer cname, PrintWriter out, JavapEnvironment env) {
+            this.out = out;
+            this.cls = new ClassData(cname);
+            this.env = env;
+        }
+
+        /**
+         * Print an already parsed class, so one ClassData can be rendered
+         * with several environments.
+         */
+        public JavapPrinter(ClassData cls, PrintWriter out, JavapEnvironment env) {
+            this.out = out;
+            this.cls = cls;
+            this.env = env;
+        }
+
+        /**
+         * Print a parsed class through a renderer, which receives the plain
+         * text and the semantic tokens.
+         */
+        public JavapPrinter(ClassData cls, JavapRenderer renderer, JavapEnvironment env) {
+            this.out = new PrintWriter(renderer);
+            this.renderer = renderer;
+            this.cls = cls;
+            this.env = env;
+        }
+
+        public void setFlushPerMethod(boolean flushPerMethod) {
+            this.flushPerMethod = flushPerMethod;
+        }
+
+        /**
+         * Print text as a token of one of the JavapRenderer TOKEN_ kinds.
+         */
+        void token(int kind, String text) {
+            if (renderer == null) {
+                out.print(text);
+            } else {
+                renderer.token(kind, text);
+            }
+        }
+
+        /**
+         * Entry point to print class file information.
+         */
+        public void print() {
+            printclassHeader();
+            printfields();
+            printMethods();
+            printend();
+        }
+
+        /**
+         * Print a description of the class (not members).
+         */
+        public void printclassHeader() {
+            String srcName = "";
+            if ((srcName = cls.getSourceName()) != "null") // requires debug
+                // info
+                out.println("Compiled from " + javaclassname(srcName));
+
+            if (cls.isInterface()) {
+                // The only useful access modifier of an interface is
+                // public; interfaces are always marked as abstract and
+                // cannot be final.
+                if (cls.isPublic()) {
+                    token(JavapRenderer.TOKEN_ACCESS, "public");
+                    out.print(' ');
+                }
+                out.print("interface ");
+                token(JavapRenderer.TOKEN_TYPE, javaclassname(cls.getClassName()));
+            } else if (cls.isClass()) {
+                String[] accflags = cls.getAccess();
+                printAccess(accflags);
+                out.print("class ");
+                token(JavapRenderer.TOKEN_TYPE, javaclassname(cls.getClassName()));
+
+                if (cls.getSuperClassName() != null) {
+                    out.print(" extends ");
+                    token(JavapRenderer.TOKEN_TYPE, javaclassname(cls.getSuperClassName()));
+                }
+            }
+
+            String[] interfacelist = cls.getSuperInterfaces();
+            if (interfacelist.length > 0) {
+                if (cls.isClass()) {
+                    out.print(" implements ");
+                } else if (cls.isInterface()) {
+                    out.print(" extends ");
+                }
+
+                for (int j = 0; j < interfacelist.length; j++) {
+                    token(JavapRenderer.TOKEN_TYPE, javaclassname(interfacelist[j]));
+
+                    if ((j + 1) < interfacelist.length) {
+                        out.print(",");
+                    }
+                }
+            }
+
+            // Print class attribute information.
+            if ((env.showallAttr) || (env.showVerbose)) {
+                printClassAttributes();
+            }
+            // Print verbose output.
+            if (env.showVerbose) {
+                printverbosecls();
+            }
+            out.println("{");
+        }
+
+        /**
+         * Print verbose output.
+         */
+        public void printverbosecls() {
+            out.println("  minor version: " + cls.getMinor_version());
+            out.println("  major version: " + cls.getMajor_version());
+            out.println("  Constant pool:");
+            printcp();
+            env.showallAttr = true;
+        }
+
+        /**
+         * Print class attribute information.
+         */
+        public void printClassAttributes() {
+            out.println();
+            AttrData[] clsattrs = cls.getAttributes();
+            for (int i = 0; i < clsattrs.length; i++) {
+                String clsattrname = clsattrs[i].getAttrName();
+                if (clsattrname.equals("SourceFile")) {
+                    out.println("  SourceFile: " + cls.getSourceName());
+                } else if (clsattrname.equals("InnerClasses")) {
+                    printInnerClasses();
+                } else if (clsattrname.equals("BootstrapMethods")) {
+                    printBootstrapMethods();
+                } else {
+                    printAttrData(clsattrs[i]);
+                }
+            }
+        }
+
+        /**
+         * Print the fields
+         */
+        public void printfields() {
+            FieldData[] fields = cls.getFields();
+            for (int f = 0; f < fields.length; f++) {
+                String[] accflags = fields[f].getAccess();
+                if (checkAccess(accflags)) {
+                    if (!(env.showLineAndLocal || env.showDisassembled || env.showVerbose || env.showInternalSigs || env.showallAttr)) {
+                        out.print("    ");
+                    }
+                    printAccess(accflags);
+                    token(JavapRenderer.TOKEN_TYPE, fields[f].getType());
+                    out.println(" " + fields[f].getName() + ";");
+                    if (env.showInternalSigs) {
+                        out.println("  Signature: " + (fields[f].getInternalSig()));
+                    }
+
+                    // print field attribute information.
+                    if (env.showallAttr) {
+                        printFieldAttributes(fields[f]);
+
+                    }
+                    if ((env.showDisassembled) || (env.showLineAndLocal)) {
+                        out.println();
+                    }
+                }
+            }
+        }
+
+        /* print field attribute information. */
+        public void printFieldAttributes(FieldData field) {
+            Vector fieldattrs = field.getAttributes();
+            for (int j = 0; j < fieldattrs.size(); j++) {
+                String fieldattrname = ((AttrData) fieldattrs.elementAt(j)).getAttrName();
+                if (fieldattrname.equals("ConstantValue")) {
+                    printConstantValue(field);
+                } else if (fieldattrname.equals("Deprecated")) {
+                    out.println("Deprecated: " + field.isDeprecated());
+                } else if (fieldattrname.equals("Synthetic")) {
+                    out.println("  Synthetic: " + field.isSynthetic());
+                } else {
+                    printAttrData((AttrData) fieldattrs.elementAt(j));
+                }
+            }
+            out.println();
+        }
+
+        /**
+         * Print the methods
+         */
+        public void printMethods() {
+            MethodData[] methods = cls.getMethods();
+            for (int m = 0; m < methods.length; m++) {
+                String[] accflags = methods[m].getAccess();
+                if (checkAccess(accflags)) {
+                    if (!(env.showLineAndLocal || env.showDisassembled || env.showVerbose || env.showInternalSigs || env.showallAttr)) {
+                        out.print("    ");
+                    }
+                    printMethodSignature(methods[m], accflags);
+                    printExceptions(methods[m]);
+                    out.println(";");
+
+                    // Print internal signature of method.
+                    if (env.showInternalSigs) {
+                        out.println("  Signature: " + (methods[m].getInternalSig()));
+                    }
+
+                    // Print disassembled code.
+                    if (env.showDisassembled && !env.showallAttr) {
+                        printcodeSequence(methods[m]);
+                        printExceptionTable(methods[m]);
+                        out.println();
+                    }
+
+                    // Print line and local variable attribute information.
+                    if (env.showLineAndLocal) {
+                        printLineNumTable(methods[m]);
+                        printLocVarTable(methods[m]);
+                        out.println();
+                    }
+
+                    // Print method attribute information.
+                    if (env.showallAttr) {
+                        printMethodAttributes(methods[m]);
+                    }
+                    if (flushPerMethod) {
+                        out.flush();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Print method signature.
+         */
+        public void printMethodSignature(MethodData method, String[] accflags) {
+            printAccess(accflags);
+
+            if ((method.getName()).equals("<init>")) {
+                token(JavapRenderer.TOKEN_TYPE, javaclassname(cls.getClassName()));
+                out.print(method.getParameters());
+            } else if ((method.getName()).equals("<clinit>")) {
+                out.print("{}");
+            } else {
+                token(JavapRenderer.TOKEN_TYPE, method.getReturnType());
+                out.print(" ");
+                out.print(method.getName());
+                out.print(method.getParameters());
+            }
+        }
+
+        /**
+         * print method attribute information.
+         */
+        public void printMethodAttributes(MethodData method) {
+            Vector methodattrs = method.getAttributes();
+            Vector codeattrs = method.getCodeAttributes();
+            for (int k = 0; k < methodattrs.size(); k++) {
+                String methodattrname = ((AttrData) methodattrs.elementAt(k)).getAttrName();
+                if (methodattrname.equals("Code")) {
+                    printcodeSequence(method);
+                    printExceptionTable(method);
+                    for (int c = 0; c < codeattrs.size(); c++) {
+                        String codeattrname = ((AttrData) codeattrs.elementAt(c)).getAttrName();
+                        if (codeattrname.equals("LineNumberTable")) {
+                            printLineNumTable(method);
+                        } else if (codeattrname.equals("LocalVariableTable")) {
+                            printLocVarTable(method);
+                        } else if (codeattrname.equals("StackMapTable")) {
+                            // Java SE JSR 202 stack map tables
+                            printStackMapTable(method);
+                        } else if (codeattrname.equals("StackMap")) {
+                            // Java ME CLDC stack maps
+                            printStackMap(method);
+                        } else {
+                            printAttrData((AttrData) codeattrs.elementAt(c));
+                        }
+                    }
+                } else if (methodattrname.equals("Exceptions")) {
+                    out.println("  Exceptions: ");
+                    printExceptions(method);
+                } else if (methodattrname.equals("Deprecated")) {
+                    out.println("  Deprecated: " + method.isDeprecated());
+                } else if (methodattrname.equals("Synthetic")) {
+                    out.println("  Synthetic: " + method.isSynthetic());
+                } else {
+                    printAttrData((AttrData) methodattrs.elementAt(k));
+                }
+            }
+            out.println();
+        }
+
+        /**
+         * Print exceptions.
+         */
+        public void printExceptions(MethodData method) {
+            int[] exc_index_table = method.get_exc_index_table();
+            if (exc_index_table != null) {
+                if (!(env.showLineAndLocal || env.showDisassembled || env.showVerbose || env.showInternalSigs || env.showallAttr)) {
+                    out.print("    ");
+                }
+                out.print("   throws ");
+                int k;
+                int l = exc_index_table.length;
+
+                for (k = 0; k < l; k++) {
+                    token(JavapRenderer.TOKEN_TYPE, javaclassname(cls.getClassName(exc_index_table[k])));
+                    if (k < l - 1)
+                        out.print(", ");
+                }
+            }
+        }
+
+        /**
+         * Print code sequence.
+         */
+        public void printcodeSequence(MethodData method) {
+            code = method.getCodeBuffer();
+            if (code != null) {
+                out.print("  ");
+                token(JavapRenderer.TOKEN_SECTION, "Code:");
+                out.println();
+                if (env.showVerbose) {
+                    printVerboseHeader(method);
+                }
+
+                cursor.reset(code);
+                while (cursor.next()) {
+                    sink.append("   ").appendInt(cursor.pc()).append(":\t");
+                    appendInstr(cursor);
+                    sink.writeTo(out);
+                    out.println();
+                }
+            }
+        }
+
+        /**
+         * Print instructions.
+         */
+        public int printInstr(int pc) {
+            cursor.reset(code);
+            cursor.decode(pc);
+            appendInstr(cursor);
+            sink.writeTo(out);
+            return cursor.length();
+        }
+
+        /**
+         * Append the instruction under the cursor to the sink. Constant pool
+         * references are written straight to out, after flushing what is
+         * buffered so far.
+         */
+        void appendInstr(BytecodeCursor insn) {
+            final int opcode = insn.opcode();
+            switch (insn.format()) {
+            case BytecodeCursor.F_PRIV: {
+                final char[] mnem = InstrSink.mnemonic((opcode << 8) + insn.opcode2());
+                if (mnem == null) {
+                    // assume all (even nonexistent) priv and nonpriv
+                    // instructions
+                    // are 2 bytes long
+                    appendOpcode(opcode);
+                    sink.append(' ').appendInt(insn.opcode2());
+                } else {
+                    appendOpcode((opcode << 8) + insn.opcode2());
+                }
+                return;
+            }
+            case BytecodeCursor.F_WIDE:
+                appendOpcode((opcode << 8) + insn.opcode2());
+                sink.append(' ').appendInt(insn.index());
+                if (insn.opcode2() == RuntimeConstants.opc_iinc) {
+                    sink.append(", ").appendInt(insn.value());
+                }
+                return;
+            case BytecodeCursor.F_INVALID:
+                // nonexistent or pseudo opcode - but we have to print something
+                sink.append("bytecode ").appendInt(opcode);
+                return;
+            }
+            appendOpcode(opcode);
+            switch (insn.format()) {
+            case BytecodeCursor.F_LOCAL:
+                sink.append('\t').appendInt(insn.index());
+                break;
+            case BytecodeCursor.F_IINC:
+                sink.append('\t').appendInt(insn.index()).append(", ").appendInt(insn.value());
+                break;
+            case BytecodeCursor.F_TABLESWITCH:
+            case BytecodeCursor.F_LOOKUPSWITCH: {
+                final int n = insn.switchSize();
+                if (insn.format() == BytecodeCursor.F_TABLESWITCH) {
+                    sink.append("{ //").appendInt(insn.switchLow()).append(" to ").appendInt(insn.switchHigh());
+                } else {
+                    sink.append("{ //").appendInt(n);
+                }
+                for (int i = 0; i < n; i++) {
+                    sink.append("\n\t\t").appendInt(insn.switchKey(i)).append(": ");
+                    appendLabel(insn.switchTarget(i));
+                    sink.append(';');
+                }
+                sink.append("\n\t\tdefault: ");
+                appendLabel(insn.switchDefault());
+                sink.append(" }");
+                break;
+            }
+            case BytecodeCursor.F_NEWARRAY:
+                switch (insn.value()) {
+                case RuntimeConstants.T_BOOLEAN:
+                    sink.append(" boolean");
+                    break;
+                case RuntimeConstants.T_BYTE:
+                    sink.append(" byte");
+                    break;
+                case RuntimeConstants.T_CHAR:
+                    sink.append(" char");
+                    break;
+                case RuntimeConstants.T_SHORT:
+                    sink.append(" short");
+                    break;
+                case RuntimeConstants.T_INT:
+                    sink.append(" int");
+                    break;
+                case RuntimeConstants.T_LONG:
+                    sink.append(" long");
+                    break;
+                case RuntimeConstants.T_FLOAT:
+                    sink.append(" float");
+                    break;
+                case RuntimeConstants.T_DOUBLE:
+                    sink.append(" double");
+                    break;
+                case RuntimeConstants.T_CLASS:
+                    sink.append(" class");
+                    break;
+                default:
+                    sink.append(" BOGUS TYPE:").appendInt(insn.value());
+                }
+                break;
+            case BytecodeCursor.F_SHORT:
+            case BytecodeCursor.F_BYTE:
+                sink.append('\t').appendInt(insn.value());
+                break;
+            case BytecodeCursor.F_CP1:
+            case BytecodeCursor.F_CP2:
+                sink.append("\t#").appendInt(insn.index()).append("; //");
+                sink.writeTo(out);
+                PrintConstant(insn.index());
+                break;
+            case BytecodeCursor.F_INVOKEINTERFACE:
+            case BytecodeCursor.F_MULTIANEWARRAY:
+                sink.append("\t#").appendInt(insn.index()).append(",  ").appendInt(insn.count()).append("; //");
+                sink.writeTo(out);
+                PrintConstant(insn.index());
+                break;
+            case BytecodeCursor.F_BRANCH2:
+            case BytecodeCursor.F_BRANCH4:
+                sink.append('\t');
+                appendLabel(insn.target());
+                break;
+            }
+        }
+
+        /**
+         * Append an opcode mnemonic, or hand it to the renderer as a token.
+         */
+        private void appendOpcode(int opc) {
+            if (renderer == null) {
+                sink.append(InstrSink.mnemonic(opc));
+            } else {
+                sink.writeTo(out);
+                renderer.token(JavapRenderer.TOKEN_OPCODE, Tables.opcName(opc));
+            }
+        }
+
+        /**
+         * Append a branch target, or hand it to the renderer as a token.
+         */
+        private void appendLabel(int target) {
+            if (renderer == null) {
+                sink.append(lP).appendInt(target);
+            } else {
+                sink.writeTo(out);
+                renderer.token(JavapRenderer.TOKEN_LABEL, lP + target);
+            }
+        }
+
+        /**
+         * Print code attribute details.
+         */
+        public void printVerboseHeader(MethodData method) {
+            int argCount = method.getArgumentlength();
+            if (!method.isStatic())
+                ++argCount; // for 'this'
+
+            out.println("   Stack=" + method.getMaxStack() + ", Locals=" + method.getMaxLocals() + ", Args_size="
+                    + argCount);
+
+        }
+
+        /**
+         * Print the exception table for this method code
+         */
+        void printExceptionTable(MethodData method) {// throws IOException
+            Vector exception_table = method.getexception_table();
+            if (exception_table.size() > 0) {
+                out.println("  Exception table:");
+                out.println("   from   to  target type");
+                for (int idx = 0; idx < exception_table.size(); ++idx) {
+                    TrapData handler = (TrapData) exception_table.elementAt(idx);
+                    printFixedWidthInt(handler.start_pc, 6);
+                    printFixedWidthInt(handler.end_pc, 6);
+                    printFixedWidthInt(handler.handler_pc, 6);
+                    out.print("   ");
+                    int catch_cpx = handler.catch_cpx;
+                    if (catch_cpx == 0) {
+                        out.println("any");
+                    } else {
+                        out.print("Class ");
+                        out.println(cls.getClassName(catch_cpx));
+                        out.println("");
+                    }
+                }
+            }
+        }
+
+        /**
+         * Print LineNumberTable attribute information.
+         */
+        public void printLineNumTable(MethodData method) {
+            int numlines = method.getnumlines();
+            Vector lin_num_tb = method.getlin_num_tb();
+            if (lin_num_tb.size() > 0) {
+                out.println("  LineNumberTable: ");
+                for (int i = 0; i < numlines; i++) {
+                    LineNumData linnumtb_entry = (LineNumData) lin_num_tb.elementAt(i);
+                    out.println("   line " + linnumtb_entry.line_number + ": " + linnumtb_entry.start_pc);
+                }
+            }
+            out.println();
+        }
+
+        /**
+         * Print LocalVariableTable attribute information.
+         */
+        public void printLocVarTable(MethodData method) {
+            int siz = method.getloc_var_tbsize();
+            if (siz > 0) {
+                out.println("  LocalVariableTable: ");
+                out.print("   ");
+                out.println("Start  Length  Slot  Name   Signature");
+            }
+            Vector loc_var_tb = method.getloc_var_tb();
+
+            for (int i = 0; i < siz; i++) {
+                LocVarData entry = (LocVarData) loc_var_tb.elementAt(i);
+
+                out.println("   " + entry.start_pc + "      " + entry.length + "      " + entry.slot + "    "
+                        + cls.StringValue(entry.name_cpx) + "       " + cls.StringValue(entry.sig_cpx));
+            }
+            out.println();
+        }
+
+        /**
+         * Print StackMap attribute information.
+         */
+        public void printStackMap(MethodData method) {
+            StackMapData[] stack_map_tb = method.getStackMap();
+            int number_of_entries = stack_map_tb.length;
+            if (number_of_entries > 0) {
+                out.println("  StackMap: number_of_entries = " + number_of_entries);
+
+                for (StackMapData frame : stack_map_tb) {
+                    frame.print(this);
+                }
+            }
+            out.println();
+        }
+
+        /**
+         * Print StackMapTable attribute information.
+         */
+        public void printStackMapTable(MethodData method) {
+            StackMapTableData[] stack_map_tb = method.getStackMapTable();
+            int number_of_entries = stack_map_tb.length;
+            if (number_of_entries > 0) {
+                out.println("  StackMapTable: number_of_entries = " + number_of_entries);
+
+                for (StackMapTableData frame : stack_map_tb) {
+                    frame.print(this);
+                }
+            }
+            out.println();
+        }
+
+        void printMap(String name, int[] map) {
+            out.print(name);
+            for (int i = 0; i < map.length; i++) {
+                int fulltype = map[i];
+                int type = fulltype & 0xFF;
+                int argument = fulltype >> 8;
+                switch (type) {
+                case RuntimeConstants.ITEM_Object:
+                    out.print(" ");
+                    PrintConstant(argument);
+                    break;
+                case RuntimeConstants.ITEM_NewObject:
+                    out.print(" " + Tables.mapTypeName(type));
+                    out.print(" " + argument);
+                    break;
+                default:
+                    out.print(" " + Tables.mapTypeName(type));
+                }
+                out.print((i == (map.length - 1) ? ' ' : ','));
+            }
+            out.println("]");
+        }
+
+        /**
+         * Print ConstantValue attribute information.
+         */
+        public void printConstantValue(FieldData field) {
+            out.print("  Constant value: ");
+            int cpx = (field.getConstantValueIndex());
+            byte tag = 0;
+            try {
+                tag = cls.getTag(cpx);
+
+            } catch (IndexOutOfBoundsException e) {
+                out.print("Error:");
+                return;
+            }
+            switch (tag) {
+            case RuntimeConstants.CONSTANT_METHOD:
+            case RuntimeConstants.CONSTANT_INTERFACEMETHOD:
+            case RuntimeConstants.CONSTANT_FIELD: {
+                if (cls.getCpoolIndex1(cpx) == cls.getthis_cpx()) {
+                    // don't print class part for local references
+                    cpx = cls.getCpoolIndex2(cpx);
+                }
+            }
+            }
+            out.print(cls.TagString(tag));
+            out.print(' ');
+            out.print(cls.StringValue(cpx));
+        }
+
+        /**
+         * Print the BootstrapMethods attribute.
+         */
+        public void printBootstrapMethods() {
+            int[][] bootstrapMethods = cls.getBootstrapMethods();
+            out.println("  BootstrapMethods:");
+            for (int i = 0; i < bootstrapMethods.length; i++) {
+                out.print("   " + i + ": #" + bootstrapMethods[i][0] + "; //");
+                PrintConstant(bootstrapMethods[i][0]);
+                out.println();
+                if (bootstrapMethods[i].length > 1) {
+                    out.println("    Method arguments:");
+                    for (int j = 1; j < bootstrapMethods[i].length; j++) {
+                        out.print("     #" + bootstrapMethods[i][j] + "; //");
+                        PrintConstant(bootstrapMethods[i][j]);
+                        out.println();
+                    }
+                }
+            }
+        }
+
+        /**
          * Print InnerClass attribute information.
          */
-        public void printInnerClasses() {// throws ioexception
+        public void printInnerClasses() {// throws ioexception
+
+            InnerClassData[] innerClasses = cls.getInnerClasses();
+            if (innerClasses != null) {
+                if (innerClasses.length > 0) {
+                    out.print("  ");
+                    out.println("InnerClass: ");
+                    for (int i = 0; i < innerClasses.length; i++) {
+                        out.print("   ");
+                        // access
+                        String[] accflags = innerClasses[i].getAccess();
+                        if (checkAccess(accflags)) {
+                            printAccess(accflags);
+                            if (innerClasses[i].inner_name_index != 0) {
+                                out.print("#" + innerClasses[i].inner_name_index + "= ");
+                            }
+                            out.print("#" + innerClasses[i].inner_class_info_index);
+                            if (innerClasses[i].outer_class_info_index != 0) {
+                                out.print(" of #" + innerClasses[i].outer_class_info_index);
+                            }
+                            out.print("; //");
+                            if (innerClasses[i].inner_name_index != 0) {
+                                out.print(cls.getName(innerClasses[i].inner_name_index) + "=");
+                            }
+                            PrintConstant(innerClasses[i].inner_class_info_index);
+                            if (innerClasses[i].outer_class_info_index != 0) {
+                                out.print(" of ");
+                                PrintConstant(innerClasses[i].outer_class_info_index);
+                            }
+                            out.println();
+                        }
+                    }
+
+                }
+            }
+        }
+
+        /**
+         * Print constant pool information.
+         */
+        public void printcp() {
+            int cpx = 1;
+
+            while (cpx < cls.getCpoolCount()) {
+                out.print("const #" + cpx + " = ");
+                cpx += PrintlnConstantEntry(cpx);
+            }
+            out.println();
+        }
+
+        /**
+         * Print constant pool entry information.
+         */
+        public int PrintlnConstantEntry(int cpx) {
+            int size = 1;
+            byte tag = 0;
+            try {
+                tag = cls.getTag(cpx);
+            } catch (IndexOutOfBoundsException e) {
+                out.println("  <Incorrect CP index>");
+                return 1;
+            }
+            out.print(cls.StringTag(cpx) + "\t");
+            if (tag == 0) {
+                out.println("null;");
+                return size;
+            }
+            String str = cls.StringValue(cpx);
+
+            switch (tag) {
+            case RuntimeConstants.CONSTANT_CLASS:
+            case RuntimeConstants.CONSTANT_STRING:
+            case RuntimeConstants.CONSTANT_METHODTYPE:
+            case RuntimeConstants.CONSTANT_MODULE:
+            case RuntimeConstants.CONSTANT_PACKAGE:
+                out.println("#" + cls.getCpoolIndex(cpx) + ";\t//  " + str);
+                break;
+            case RuntimeConstants.CONSTANT_METHODHANDLE:
+                out.println(cls.getCpoolIndex1(cpx) + ":#" + cls.getCpoolIndex2(cpx) + ";\t//  " + str);
+                break;
+            case RuntimeConstants.CONSTANT_DYNAMIC:
+            case RuntimeConstants.CONSTANT_INVOKEDYNAMIC:
+                out.println("#" + cls.getCpoolIndex1(cpx) + ":#" + cls.getCpoolIndex2(cpx) + ";\t//  " + str);
+                break;
+            case RuntimeConstants.CONSTANT_FIELD:
+            case RuntimeConstants.CONSTANT_METHOD:
+            case RuntimeConstants.CONSTANT_INTERFACEMETHOD:
+                out.println("#" + cls.getCpoolIndex1(cpx) + ".#" + cls.getCpoolIndex2(cpx) + ";\t//  " + str);
+                break;
+            case RuntimeConstants.CONSTANT_NAMEANDTYPE:
+                out.println("#" + cls.getCpoolIndex1(cpx) + ":#" + cls.getCpoolIndex2(cpx) + ";//  " + str);
+                break;
+            case RuntimeConstants.CONSTANT_LONG:
+            case RuntimeConstants.CONSTANT_DOUBLE:
+                size = 2;
+            default:
+                out.println(str + ";");
+            }
+            return size;
+        }
+
+        /**
+         * Checks access of class, field or method.
+         */
+        public boolean checkAccess(String accflags[]) {
+
+            boolean ispublic = false;
+            boolean isprotected = false;
+            boolean isprivate = false;
+            boolean ispackage = false;
+
+            for (int i = 0; i < accflags.length; i++) {
+                if (accflags[i].equals("public"))
+                    ispublic = true;
+                else if (accflags[i].equals("protected"))
+                    isprotected = true;
+                else if (accflags[i].equals("private"))
+                    isprivate = true;
+            }
+
+            if (!(ispublic || isprotected || isprivate))
+                ispackage = true;
+
+            if ((env.showAccess == env.PUBLIC) && (isprotected || isprivate || ispackage))
+                return false;
+            else if ((env.showAccess == env.PROTECTED) && (isprivate || ispackage))
+                return false;
+            else if ((env.showAccess == env.PACKAGE) && (isprivate))
+                return false;
+            else
+                return true;
+        }
+
+        /**
+         * Prints access of class, field or method.
+         */
+        public void printAccess(String[] accflags) {
+            for (int j = 0; j < accflags.length; j++) {
+                token(JavapRenderer.TOKEN_ACCESS, accflags[j]);
+                out.print(' ');
+            }
+        }
+
+        /**
+         * Print an integer so that it takes 'length' characters in the output.
+         * Temporary until formatting code is stable.
+         */
+        public void printFixedWidthInt(long x, int length) {
+            sink.appendPadded(x, length);
+            sink.writeTo(out);
+        }
+
+        protected int getbyte(int pc) {
+            return code.get(pc);
+        }
+
+        protected int getUbyte(int pc) {
+            return code.get(pc) & 0xFF;
+        }
+
+        int getShort(int pc) {
+            return code.getShort(pc);
+        }
+
+        int getUShort(int pc) {
+            return code.getShort(pc) & 0xFFFF;
+        }
+
+        protected int getInt(int pc) {
+            return code.getInt(pc);
+        }
+
+        /**
+         * Print constant value at that index.
+         */
+        void PrintConstant(int cpx) {
+            if (cpx == 0) {
+                out.print("#0");
+                return;
+            }
+            byte tag = 0;
+            try {
+                tag = cls.getTag(cpx);
+
+            } catch (IndexOutOfBoundsException e) {
+                out.print("#" + cpx);
+                return;
+            }
+            switch (tag) {
+            case RuntimeConstants.CONSTANT_METHOD:
+            case RuntimeConstants.CONSTANT_INTERFACEMETHOD:
+            case RuntimeConstants.CONSTANT_FIELD: {
+                if (cls.getCpoolIndex1(cpx) == cls.getthis_cpx()) {
+                    // don't print class part for local references
+                    cpx = cls.getCpoolIndex2(cpx);
+                }
+            }
+            }
+            out.print(cls.TagString(tag));
+            out.print(' ');
+            token(JavapRenderer.TOKEN_CP_REF, cls.StringValue(cpx));
+        }
+
+        protected static int align(int n) {
+            return (n + 3) & ~3;
+        }
+
+        public void printend() {
+            out.println("}");
+            out.println();
+        }
+
+        public String javaclassname(String name) {
+            return name.replace('/', '.');
+        }
+
+        /**
+         * Print attribute data in hex.
+         */
+        public void printAttrData(AttrData attr) {
+            ByteBuffer data = attr.getDataBuffer();
+            int i = 0;
+            int j = 0;
+            out.print("  " + attr.getAttrName() + ": ");
+            out.println("length = " + cls.toHex(attr.datalen));
+
+            out.print("   ");
+
+            while (i < data.limit()) {
+                String databytestring = cls.toHex(data.get(i));
+                if (databytestring.equals("0x"))
+                    out.print("00");
+                else if (databytestring.substring(2).length() == 1) {
+                    out.print("0" + databytestring.substring(2));
+                } else {
+                    out.print(databytestring.substring(2));
+                }
+
+                j++;
+                if (j == 16) {
+                    out.println();
+                    out.print("   ");
+                    j = 0;
+                } else
+                    out.print(" ");
+                i++;
+            }
+            out.println();
+        }
+    }
+
+    // From: http://hg.openjdk.java.net/jdk7/jaxp/langtools/
+
+    /**
+     * Strores flag values according to command line options and sets path where
+     * to find classes.
+     * 
+     * @author Sucheta Dambalkar
+     */
+    public static class JavapEnvironment {
+
+        // Access flags
+        public static final int PRIVATE = 0;
+
+        public static final int PROTECTED = 1;
+
+        public static final int PACKAGE = 2;
+
+        public static final int PUBLIC = 3;
+
+        // Views of a parsed class, see forView.
+        public static final int VIEW_SUMMARY = 0;
+
+        public static final int VIEW_VERBOSE = 1;
+
+        public static final int VIEW_LINES = 2;
+
+        // search path flags.
+        private static final int start = 0;
+
+        private static final int cmdboot = 1;
+
+        private static final int sunboot = 2;
+
+        private static final int javaclass = 3;
+
+        private static final int cmdextdir = 4;
+
+        private static final int javaext = 5;
+
+        private static final int cmdclasspath = 6;
+
+        private static final int envclasspath = 7;
+
+        private static final int javaclasspath = 8;
+
+        private static final int currentdir = 9;
+
+        /**
+         * How long a failed class lookup is remembered.
+         */
+        static final long NEGATIVE_TTL_MILLIS = 30 * 1000L;
+
+        static final int MAX_NEGATIVE = 4096;
+
+        /**
+         * Class names not found, keyed by search path and name, oldest first.
+         */
+        private static final LinkedHashMap<String, Miss> misses = new LinkedHashMap<String, Miss>(64);
+
+        /**
+         * Open jar files shared by all environments.
+         */
+        public static final JarFilePool JAR_POOL = new JarFilePool(64, 5 * 60 * 1000L);
+
+        // JavapEnvironment flag settings
+        boolean showLineAndLocal = false;
+
+        int showAccess = PACKAGE;
+
+        boolean showDisassembled = false;
+
+        boolean showVerbose = false;
+
+        boolean showInternalSigs = false;
+
+        String classPathString = null;
+
+        String bootClassPathString = null;
+
+        String extDirsString = null;
+
+        boolean extDirflag = false;
+
+        boolean jrtflag = false;
+
+        boolean nothingToDo = true;
+
+        boolean showallAttr = false;
+
+        String classpath = null;
+
+        int searchpath = start;
+
+        /**
+         * Class loader searched after the search path, e.g. a web
+         * application's, or null.
+         */
+        ClassLoader loader = null;
+
+        /**
+         * Class path indexes the current lookup has searched.
+         */
+        private List<ClasspathIndex> consulted = new ArrayList<ClasspathIndex>(4);
 
-            InnerClassData[] innerClasses = cls.getInnerClasses();
-            if (innerClasses != null) {
-                if (innerClasses.length > 0) {
-                    out.print("  ");
-                    out.println("InnerClass: ");
-                    for (int i = 0; i < innerClasses.length; i++) {
-                        out.print("   ");
-                        // access
-                        String[] accflags = innerClasses[i].getAccess();
-                        if (checkAccess(accflags)) {
-                            printAccess(accflags);
-                            if (innerClasses[i].inner_name_index != 0) {
-                                out.print("#" + innerClasses[i].inner_name_index + "= ");
-                            }
-                            out.print("#" + innerClasses[i].inner_class_info_index);
-                            if (innerClasses[i].outer_class_info_index != 0) {
-                                out.print(" of #" + innerClasses[i].outer_class_info_index);
-                            }
-                            out.print("; //");
-                            if (innerClasses[i].inner_name_index != 0) {
-                                out.print(cls.getName(innerClasses[i].inner_name_index) + "=");
-                            }
-                            PrintConstant(innerClasses[i].inner_class_info_index);
-                            if (innerClasses[i].outer_class_info_index != 0) {
-                                out.print(" of ");
-                                PrintConstant(innerClasses[i].outer_class_info_index);
-                            }
-                            out.println();
-                        }
+        /**
+         * According to which flags are set, returns file input stream for
+         * classfile to disassemble, or null if it cannot be found.
+         */
+        public InputStream getFileInputStream(String Name) {
+            return lookupClass(Name).getStream();
+        }
+
+        /**
+         * Find a classfile on the search path. A miss is reported in the
+         * result, and remembered for NEGATIVE_TTL_MILLIS so that repeated
+         * lookups of a missing name skip the scan, unless the search path
+         * or one of its roots changes first.
+         */
+        public ClassLookup lookupClass(String Name) {
+            final String missKey = searchPathKey() + '\n' + Name;
+            final Miss miss;
+            synchronized (misses) {
+                miss = misses.get(missKey);
+            }
+            if (miss != null) {
+                if (miss.isValid(Name.replace('.', '/') + ".class")) {
+                    return new ClassLookup(ClassLookup.NOT_FOUND, Name, null, "Could not find " + Name);
+                }
+                synchronized (misses) {
+                    if (misses.get(missKey) == miss) {
+                        misses.remove(missKey);
+                    }
+                }
+            }
+            consulted.clear();
+            try {
+                final InputStream in = searchClass(Name);
+                if (in != null) {
+                    return new ClassLookup(ClassLookup.FOUND, Name, in, null);
+                }
+            } catch (SecurityException excsec) {
+                excsec.printStackTrace();
+                return new ClassLookup(ClassLookup.FAILED, Name, null, "fatal exception");
+            } catch (NullPointerException excnull) {
+                excnull.printStackTrace();
+                return new ClassLookup(ClassLookup.FAILED, Name, null, "fatal exception");
+            } catch (IllegalArgumentException excill) {
+                excill.printStackTrace();
+                return new ClassLookup(ClassLookup.FAILED, Name, null, "fatal exception");
+            }
+            final Miss found = new Miss(consulted.toArray(new ClasspathIndex[consulted.size()]));
+            synchronized (misses) {
+                misses.put(missKey, found);
+                final Iterator<String> it = misses.keySet().iterator();
+                while (misses.size() > MAX_NEGATIVE && it.hasNext()) {
+                    it.next();
+                    it.remove();
+                }
+            }
+            return new ClassLookup(ClassLookup.NOT_FOUND, Name, null, "Could not find " + Name);
+        }
+
+        /**
+         * A remembered lookup miss and the indexes searched for it.
+         */
+        private static final class Miss {
+
+            private final long recorded = System.currentTimeMillis();
+
+            private final ClasspathIndex[] indexes;
+
+            Miss(ClasspathIndex[] indexes) {
+                this.indexes = indexes;
+            }
+
+            /**
+             * Return true while the miss has not expired and no searched
+             * root can have gained the class file entry name since.
+             */
+            boolean isValid(String classname) {
+                if (System.currentTimeMillis() - recorded >= NEGATIVE_TTL_MILLIS) {
+                    return false;
+                }
+                for (int i = 0; i < indexes.length; i++) {
+                    if (indexes[i].changedSince(classname, recorded)) {
+                        return false;
                     }
+                }
+                return true;
+            }
+        }
+
+        /**
+         * Return every setting that decides where classes are searched.
+         */
+        String searchPathKey() {
+            final StringBuilder key = new StringBuilder(256);
+            key.append(bootClassPathString).append('\n').append(System.getProperty("sun.boot.class.path"));
+            key.append('\n').append(System.getProperty("java.class.path")).append('\n').append(extDirsString);
+            key.append('\n').append(System.getProperty("java.ext.dirs")).append('\n').append(classPathString);
+            key.append('\n').append(System.getProperty("env.class.path")).append('\n')
+                    .append(System.getProperty("java.home")).append('\n')
+                    .append(new File(".").getAbsolutePath()).append('\n')
+                    .append((loader == null) ? 0 : System.identityHashCode(loader));
+            return key.toString();
+        }
+
+        /**
+         * Walk the search path in javap order. Returns null on a miss.
+         */
+        private InputStream searchClass(String Name) {
+            InputStream fileInStream = null;
+            searchpath = cmdboot;
+            {
+                if (searchpath == cmdboot) {
+                    if (bootClassPathString != null) {
+                        // search in specified bootclasspath.
+                        classpath = bootClassPathString;
+                        if ((fileInStream = resolvefilename(Name)) != null)
+                            return fileInStream;
+                        // no classes found in search path.
+                        else
+                            searchpath = cmdextdir;
+                    } else
+                        searchpath = sunboot;
+                }
+
+                if (searchpath == sunboot) {
+                    if (System.getProperty("sun.boot.class.path") != null) {
+                        // search in sun.boot.class.path
+                        classpath = System.getProperty("sun.boot.class.path");
+                        if ((fileInStream = resolvefilename(Name)) != null)
+                            return fileInStream;
+                        // no classes found in search path
+                        else
+                            searchpath = cmdextdir;
+                    } else if (JrtIndex.available()) {
+                        // search in the module image.
+                        jrtflag = true;
+                        fileInStream = resolvefilename(Name);
+                        jrtflag = false;
+                        if (fileInStream != null)
+                            return fileInStream;
+                        searchpath = cmdextdir;
+                    } else
+                        searchpath = javaclass;
+                }
+
+                if (searchpath == javaclass) {
+                    if (System.getProperty("java.class.path") != null) {
+                        // search in java.class.path
+                        classpath = System.getProperty("java.class.path");
+                        if ((fileInStream = resolvefilename(Name)) != null)
+                            return fileInStream;
+                        // no classes found in search path
+                        else
+                            searchpath = cmdextdir;
+                    } else
+                        searchpath = cmdextdir;
+                }
+
+                if (searchpath == cmdextdir) {
+                    if (extDirsString != null) {
+                        // search in specified extdir.
+                        classpath = extDirsString;
+                        extDirflag = true;
+                        if ((fileInStream = resolvefilename(Name)) != null)
+                            return fileInStream;
+                        // no classes found in search path
+                        else {
+                            searchpath = cmdclasspath;
+                            extDirflag = false;
+                        }
+                    } else
+                        searchpath = javaext;
+                }
+
+                if (searchpath == javaext) {
+                    if (System.getProperty("java.ext.dirs") != null) {
+                        // search in java.ext.dirs
+                        classpath = System.getProperty("java.ext.dirs");
+                        extDirflag = true;
+                        if ((fileInStream = resolvefilename(Name)) != null)
+                            return fileInStream;
+                        // no classes found in search path
+                        else {
+                            searchpath = cmdclasspath;
+                            extDirflag = false;
+                        }
+                    } else
+                        searchpath = cmdclasspath;
+                }
+                if (searchpath == cmdclasspath) {
+                    if (classPathString != null) {
+                        // search in specified classpath.
+                        classpath = classPathString;
+                        if ((fileInStream = resolvefilename(Name)) != null)
+                            return fileInStream;
+                        // no classes found in search path
+                        else
+                            searchpath = 8;
+                    } else
+                        searchpath = envclasspath;
+                }
+
+                if (searchpath == envclasspath) {
+                    if (System.getProperty("env.class.path") != null) {
+                        // search in env.class.path
+                        classpath = System.getProperty("env.class.path");
+                        if ((fileInStream = resolvefilename(Name)) != null)
+                            return fileInStream;
+                        // no classes found in search path.
+                        else
+                            searchpath = javaclasspath;
+                    } else
+                        searchpath = javaclasspath;
+                }
+
+                if (searchpath == javaclasspath) {
+                    if (("application.home") == null) {
+                        // search in java.class.path
+                        classpath = System.getProperty("java.class.path");
+                        if ((fileInStream = resolvefilename(Name)) != null)
+                            return fileInStream;
+                        // no classes found in search path.
+                        else
+                            searchpath = currentdir;
+                    } else
+                        searchpath = currentdir;
+                }
+
+                if (searchpath == currentdir) {
+                    classpath = ".";
+                    // search in current dir.
+                    if ((fileInStream = resolvefilename(Name)) != null)
+                        return fileInStream;
+                }
+
+                if (loader != null) {
+                    // then the class loader.
+                    return loader.getResourceAsStream(Name.replace('.', '/') + ".class");
+                }
+            }
+
+            // no classes found in search path.
+            return null;
+        }
+
+        public void error(String msg) {
+            System.err.println("ERROR:" + msg);
+        }
+
+        /**
+         * Returns the whole classfile to disassemble as a buffer. Class files
+         * found in a directory are memory-mapped, others are read into a heap
+         * buffer.
+         */
+        public ByteBuffer getClassBuffer(String Name) throws IOException {
+            final InputStream in = lookupClass(Name).getStream();
+            if (in == null) {
+                return null;
+            }
+            return toBuffer(in);
+        }
+
+        /**
+         * Reads the stream into a buffer and closes it. Streams from
+         * lookupClass hand over their buffer as is; other streams are read
+         * into a ClassBuffers buffer, which the caller may release once done
+         * with the class.
+         */
+        public static ByteBuffer toBuffer(InputStream in) throws IOException {
+            try {
+                if (in instanceof FileInputStream) {
+                    final FileChannel channel = ((FileInputStream) in).getChannel();
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                if (in instanceof BufferInputStream) {
+                    return ((BufferInputStream) in).getBuffer();
+                }
+                return ClassBuffers.read(in, -1);
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * Resolves file name for classfile to disassemble.
+         */
+        public InputStream resolvefilename(String name) {
+            String classname = name.replace('.', '/') + ".class";
+            while (true) {
+                InputStream instream = jrtflag ? resolveJrt(classname) : extDirflag ? resolveExdirFilename(classname)
+                        : resolveclasspath(classname);
+                if (instream != null)
+                    return instream;
+                int lastindex = classname.lastIndexOf('/');
+                if (lastindex == -1)
+                    return null;
+                classname = classname.substring(0, lastindex) + "$" + classname.substring(lastindex + 1);
+            }
+        }
+
+        /**
+         * Resolves file name for classfile to disassemble if flag exdir is set.
+         */
+        public InputStream resolveExdirFilename(String classname) {
+            try {
+                return searched(ClasspathIndex.forExtDirs(classpath)).open(classname);
+            } catch (FileNotFoundException fnexce) {
+                fnexce.printStackTrace();
+                error("cant read file");
+                error("fatal exception");
+            } catch (IOException ioexc) {
+                ioexc.printStackTrace();
+                error("fatal exception");
+            }
+            return null;
+        }
+
+        /**
+         * Resolves file name for classfile to disassemble.
+         */
+        public InputStream resolveclasspath(String classname) {
+            try {
+                return searched(ClasspathIndex.forPath(classpath)).open(classname);
+            } catch (FileNotFoundException fnexce) {
+                fnexce.printStackTrace();
+                error("cant read file");
+                error("fatal exception");
+            } catch (IOException ioexce) {
+                ioexce.printStackTrace();
+                error("fatal exception");
+            }
+            return null;
+        }
 
-                }
+        private ClasspathIndex searched(ClasspathIndex index) {
+            if (!consulted.contains(index)) {
+                consulted.add(index);
             }
+            return index;
         }
 
         /**
-         * Print constant pool information.
+         * Resolves file name for classfile in the JDK module image.
          */
-        public void printcp() {
-            int cpx = 1;
-
-            while (cpx < cls.getCpoolCount()) {
-                out.print("const #" + cpx + " = ");
-                cpx += PrintlnConstantEntry(cpx);
+        public InputStream resolveJrt(String classname) {
+            try {
+                return JrtIndex.open(classname);
+            } catch (IOException ioexce) {
+                ioexce.printStackTrace();
+                error("fatal exception");
             }
-            out.println();
+            return null;
         }
 
         /**
-         * Print constant pool entry information.
+         * Build the indexes of the paths this environment searches, in
+         * search order, so the first lookup does not pay for reading the
+         * jars. The jars of each path are read in parallel.
          */
-        public int PrintlnConstantEntry(int cpx) {
-            int size = 1;
-            byte tag = 0;
-            try {
-                tag = cls.getTag(cpx);
-            } catch (IndexOutOfBoundsException e) {
-                out.println("  <Incorrect CP index>");
-                return 1;
+        public void buildIndexes() {
+            final String boot = (bootClassPathString != null) ? bootClassPathString : System
+                    .getProperty("sun.boot.class.path");
+            if (boot != null) {
+                ClasspathIndex.forPath(boot);
+            } else if (JrtIndex.available()) {
+                JrtIndex.get();
+            } else if (System.getProperty("java.class.path") != null) {
+                ClasspathIndex.forPath(System.getProperty("java.class.path"));
             }
-            out.print(cls.StringTag(cpx) + "\t");
-            Object x = cls.getCpoolEntryobj(cpx);
-            if (x == null) {
-                switch (tag) {
-                case RuntimeConstants.CONSTANT_LONG:
-                case RuntimeConstants.CONSTANT_DOUBLE:
-                    size = 2;
-                }
-                out.println("null;");
-                return size;
+            final String ext = (extDirsString != null) ? extDirsString : System.getProperty("java.ext.dirs");
+            if (ext != null) {
+                ClasspathIndex.forExtDirs(ext);
             }
-            String str = cls.StringValue(cpx);
+            final String path = (classPathString != null) ? classPathString : System.getProperty("env.class.path");
+            if (path != null) {
+                ClasspathIndex.forPath(path);
+            }
+            ClasspathIndex.forPath(".");
+        }
 
-            switch (tag) {
-            case RuntimeConstants.CONSTANT_CLASS:
-            case RuntimeConstants.CONSTANT_STRING:
-                out.println("#" + (((CPX) x).cpx) + ";\t//  " + str);
+        /**
+         * Return a new environment set up for one of the VIEW_ constants:
+         * signatures only, the full verbose listing, or code with line number
+         * and local variable tables. Printing may change the flags, so each
+         * printer should get its own environment.
+         */
+        public static JavapEnvironment forView(int view) {
+            final JavapEnvironment env = new JavapEnvironment();
+            switch (view) {
+            case VIEW_SUMMARY:
                 break;
-            case RuntimeConstants.CONSTANT_FIELD:
-            case RuntimeConstants.CONSTANT_METHOD:
-            case RuntimeConstants.CONSTANT_INTERFACEMETHOD:
-                out.println("#" + ((CPX2) x).cpx1 + ".#" + ((CPX2) x).cpx2 + ";\t//  " + str);
+            case VIEW_VERBOSE:
+                env.showVerbose = true;
+                env.showDisassembled = true;
+                env.showLineAndLocal = true;
                 break;
-            case RuntimeConstants.CONSTANT_NAMEANDTYPE:
-                out.println("#" + ((CPX2) x).cpx1 + ":#" + ((CPX2) x).cpx2 + ";//  " + str);
+            case VIEW_LINES:
+                env.showDisassembled = true;
+                env.showLineAndLocal = true;
                 break;
-            case RuntimeConstants.CONSTANT_LONG:
-            case RuntimeConstants.CONSTANT_DOUBLE:
-                size = 2;
             default:
-                out.println(str + ";");
+                throw new IllegalArgumentException("invalid view: " + view);
             }
-            return size;
+            return env;
         }
 
         /**
-         * Checks access of class, field or method.
+         * Return a short string naming the flags that change the printed
+         * output, for use in cache keys.
          */
-        public boolean checkAccess(String accflags[]) {
+        public String optionsKey() {
+            return "a" + showAccess + (showVerbose ? "v" : "") + (showDisassembled ? "c" : "")
+                    + (showLineAndLocal ? "l" : "") + (showInternalSigs ? "s" : "") + (showallAttr ? "A" : "");
+        }
 
-            boolean ispublic = false;
-            boolean isprotected = false;
-            boolean isprivate = false;
-            boolean ispackage = false;
+        /**
+         * @return the showLineAndLocal
+         */
+        public boolean isShowLineAndLocal() {
+            return showLineAndLocal;
+        }
 
-            for (int i = 0; i < accflags.length; i++) {
-                if (accflags[i].equals("public"))
-                    ispublic = true;
-                else if (accflags[i].equals("protected"))
-                    isprotected = true;
-                else if (accflags[i].equals("private"))
-                    isprivate = true;
-            }
+        /**
+         * @param showLineAndLocal
+         *            the showLineAndLocal to set
+         */
+        public void setShowLineAndLocal(boolean showLineAndLocal) {
+            this.showLineAndLocal = showLineAndLocal;
+        }
 
-            if (!(ispublic || isprotected || isprivate))
-                ispackage = true;
+        /**
+         * @return the showAccess
+         */
+        public int getShowAccess() {
+            return showAccess;
+        }
 
-            if ((env.showAccess == env.PUBLIC) && (isprotected || isprivate || ispackage))
-                return false;
-            else if ((env.showAccess == env.PROTECTED) && (isprivate || ispackage))
-                return false;
-            else if ((env.showAccess == env.PACKAGE) && (isprivate))
-                return false;
-            else
-                return true;
+        /**
+         * @param showAccess
+         *            the showAccess to set
+         */
+        public void setShowAccess(int showAccess) {
+            this.showAccess = showAccess;
         }
 
         /**
-         * Prints access of class, field or method.
+         * @return the showDisassembled
          */
-        public void printAccess(String[] accflags) {
-            for (int j = 0; j < accflags.length; j++) {
-                out.print(accflags[j] + " ");
-            }
+        public boolean isShowDisassembled() {
+            return showDisassembled;
         }
 
         /**
-         * Print an integer so that it takes 'length' characters in the output.
-         * Temporary until formatting code is stable.
+         * @param showDisassembled
+         *            the showDisassembled to set
          */
-        public void printFixedWidthInt(long x, int length) {
-            CharArrayWriter baStream = new CharArrayWriter();
-            PrintWriter pStream = new PrintWriter(baStream);
-            pStream.print(x);
-            String str = baStream.toString();
-            for (int cnt = length - str.length(); cnt > 0; --cnt)
-                out.print(' ');
-            out.print(str);
+        public void setShowDisassembled(boolean showDisassembled) {
+            this.showDisassembled = showDisassembled;
         }
 
-        protected int getbyte(int pc) {
-            return code[pc];
+        /**
+         * @return the showVerbose
+         */
+        public boolean isShowVerbose() {
+            return showVerbose;
         }
 
-        protected int getUbyte(int pc) {
-            return code[pc] & 0xFF;
+        /**
+         * @param showVerbose
+         *            the showVerbose to set
+         */
+        public void setShowVerbose(boolean showVerbose) {
+            this.showVerbose = showVerbose;
         }
 
-        int getShort(int pc) {
-            return (code[pc] << 8) | (code[pc + 1] & 0xFF);
+        /**
+         * @return the showInternalSigs
+         */
+        public boolean isShowInternalSigs() {
+            return showInternalSigs;
         }
 
-        int getUShort(int pc) {
-            return ((code[pc] << 8) | (code[pc + 1] & 0xFF)) & 0xFFFF;
+        /**
+         * @param showInternalSigs
+         *            the showInternalSigs to set
+         */
+        public void setShowInternalSigs(boolean showInternalSigs) {
+            this.showInternalSigs = showInternalSigs;
         }
 
-        protected int getInt(int pc) {
-            return (getShort(pc) << 16) | (getShort(pc + 2) & 0xFFFF);
+        /**
+         * @return the showallAttr
+         */
+        public boolean isShowallAttr() {
+            return showallAttr;
         }
 
         /**
-         * Print constant value at that index.
+         * @param showallAttr
+         *            the showallAttr to set
          */
-        void PrintConstant(int cpx) {
-            if (cpx == 0) {
-                out.print("#0");
-                return;
-            }
-            byte tag = 0;
-            try {
-                tag = cls.getTag(cpx);
+        public void setShowallAttr(boolean showallAttr) {
+            this.showallAttr = showallAttr;
+        }
+    }
 
-            } catch (IndexOutOfBoundsException e) {
-                out.print("#" + cpx);
-                return;
-            }
-            switch (tag) {
-            case RuntimeConstants.CONSTANT_METHOD:
-            case RuntimeConstants.CONSTANT_INTERFACEMETHOD:
-            case RuntimeConstants.CONSTANT_FIELD: {
-                // CPX2 x=(CPX2)(cpool[cpx]);
-                CPX2 x = (CPX2) (cls.getCpoolEntry(cpx));
-                if (x.cpx1 == cls.getthis_cpx()) {
-                    // don't print class part for local references
-                    cpx = x.cpx2;
-                }
-            }
-            }
-            out.print(cls.TagString(tag) + " " + cls.StringValue(cpx));
+    /**
+     * Result of JavapEnvironment.lookupClass: the open classfile stream, or
+     * why there is none.
+     */
+    public static class ClassLookup {
+
+        public static final int FOUND = 0;
+
+        public static final int NOT_FOUND = 1;
+
+        public static final int FAILED = 2;
+
+        private final int status;
+
+        private final String name;
+
+        private final InputStream stream;
+
+        private final String message;
+
+        public ClassLookup(int status, String name, InputStream stream, String message) {
+            this.status = status;
+            this.name = name;
+            this.stream = stream;
+            this.message = message;
         }
 
-        protected static int align(int n) {
-            return (n + 3) & ~3;
+        public int getStatus() {
+            return status;
         }
 
-        public void printend() {
-            out.println("}");
-            out.println();
+        public boolean isFound() {
+            return status == FOUND;
         }
 
-        public String javaclassname(String name) {
-            return name.replace('/', '.');
+        public String getName() {
+            return name;
         }
 
         /**
-         * Print attribute data in hex.
+         * Return the classfile stream, null unless found.
          */
-        public void printAttrData(AttrData attr) {
-            byte[] data = attr.getData();
-            int i = 0;
-            int j = 0;
-            out.print("  " + attr.getAttrName() + ": ");
-            out.println("length = " + cls.toHex(attr.datalen));
+        public InputStream getStream() {
+            return stream;
+        }
 
-            out.print("   ");
+        /**
+         * Return the reason the class was not found, null if found.
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
 
-            while (i < data.length) {
-                String databytestring = cls.toHex(data[i]);
-                if (databytestring.equals("0x"))
-                    out.print("00");
-                else if (databytestring.substring(2).length() == 1) {
-                    out.print("0" + databytestring.substring(2));
-                } else {
-                    out.print(databytestring.substring(2));
+    /**
+     * Reads class files into reusable heap buffers. Each thread keeps one
+     * spare array; a read takes it, growing it when too small, and a
+     * caller that has finished with the class gives it back with release.
+     * Buffers never released are simply left to the garbage collector.
+     */
+    public static final class ClassBuffers {
+
+        /** Largest array kept as a spare. */
+        static final int MAX_POOLED = 1024 * 1024;
+
+        private static final ThreadLocal<byte[][]> spare = new ThreadLocal<byte[][]>() {
+            protected byte[][] initialValue() {
+                // { spare array, array lent out by this thread }
+                return new byte[2][];
+            }
+        };
+
+        private ClassBuffers() {
+        }
+
+        /**
+         * Read the stream into a buffer. When size is not negative exactly
+         * that many bytes are read; otherwise the stream is read in chunks
+         * to its end. The stream is not closed.
+         */
+        public static ByteBuffer read(InputStream in, long size) throws IOException {
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Class file too large: " + size);
+            }
+            final int expected = (int) size;
+            byte[] b = take(Math.max(expected, 0));
+            int total = 0;
+            if (expected >= 0) {
+                while (total < expected) {
+                    final int n = in.read(b, total, expected - total);
+                    if (n < 0) {
+                        throw new EOFException("Truncated class file, read " + total + " of " + expected);
+                    }
+                    total += n;
+                }
+            } else {
+                int n;
+                while ((n = in.read(b, total, b.length - total)) != -1) {
+                    total += n;
+                    if (total == b.length) {
+                        final byte[] grown = new byte[b.length * 2];
+                        System.arraycopy(b, 0, grown, 0, total);
+                        b = grown;
+                    }
                 }
+            }
+            return lend(b, total);
+        }
 
-                j++;
-                if (j == 16) {
-                    out.println();
-                    out.print("   ");
-                    j = 0;
-                } else
-                    out.print(" ");
-                i++;
+        /**
+         * Return this thread's spare array if it holds at least size bytes,
+         * otherwise a new one.
+         */
+        static byte[] take(int size) {
+            final byte[][] slots = spare.get();
+            final byte[] b = slots[0];
+            if (b != null && b.length >= size) {
+                slots[0] = null;
+                return b;
+            }
+            return new byte[Math.max(size, 8192)];
+        }
+
+        /**
+         * Return the first length bytes of b, an array from take, as a
+         * buffer that release will accept.
+         */
+        static ByteBuffer lend(byte[] b, int length) {
+            spare.get()[1] = b;
+            return ByteBuffer.wrap(b, 0, length).slice();
+        }
+
+        /**
+         * Give back a buffer returned by read on this thread. The caller
+         * must not use it, or anything parsed from it, afterwards.
+         */
+        public static void release(ByteBuffer buf) {
+            if (buf == null || !buf.hasArray()) {
+                return;
+            }
+            final byte[][] slots = spare.get();
+            if (buf.array() == slots[1]) {
+                slots[1] = null;
+                if (buf.array().length <= MAX_POOLED) {
+                    slots[0] = buf.array();
+                }
             }
-            out.println();
         }
     }
 
-    // From: http://hg.openjdk.java.net/jdk7/jaxp/langtools/
-
     /**
-     * Strores flag values according to command line options and sets path where
-     * to find classes.
-     * 
-     * @author Sucheta Dambalkar
+     * Stream over class bytes already in a buffer, so JavapEnvironment.toBuffer
+     * can hand the buffer on without copying.
      */
-    public static class JavapEnvironment {
+    public static class BufferInputStream extends InputStream {
 
-        // Access flags
-        public static final int PRIVATE = 0;
+        private final ByteBuffer buffer;
 
-        public static final int PROTECTED = 1;
+        private final ByteBuffer in;
 
-        public static final int PACKAGE = 2;
+        public BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.in = buffer.duplicate();
+        }
 
-        public static final int PUBLIC = 3;
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
 
-        // search path flags.
-        private static final int start = 0;
+        public int read() {
+            return in.hasRemaining() ? (in.get() & 0xFF) : -1;
+        }
 
-        private static final int cmdboot = 1;
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!in.hasRemaining()) {
+                return -1;
+            }
+            final int n = Math.min(len, in.remaining());
+            in.get(b, off, n);
+            return n;
+        }
 
-        private static final int sunboot = 2;
+        public int available() {
+            return in.remaining();
+        }
+    }
 
-        private static final int javaclass = 3;
+    /**
+     * Read-only zip reader over a memory-mapped archive. The central
+     * directory is parsed once into arrays; STORED entries are returned as
+     * slices of the mapping and DEFLATED entries are inflated into
+     * ClassBuffers buffers. Archives over 2GB, zip64 archives and other
+     * compression methods are rejected with a ZipException so the caller
+     * can fall back to JarFile.
+     */
+    public static class MappedZipFile {
 
-        private static final int cmdextdir = 4;
+        private static final int LOC_SIG = 0x04034b50;
 
-        private static final int javaext = 5;
+        private static final int CEN_SIG = 0x02014b50;
 
-        private static final int cmdclasspath = 6;
+        private static final int END_SIG = 0x06054b50;
 
-        private static final int envclasspath = 7;
+        private static final int LOC_HEADER = 30;
 
-        private static final int javaclasspath = 8;
+        private static final int CEN_HEADER = 46;
 
-        private static final int currentdir = 9;
+        private static final int END_HEADER = 22;
 
-        // JavapEnvironment flag settings
-        boolean showLineAndLocal = false;
+        private static final Charset UTF8 = Charset.forName("UTF-8");
 
-        int showAccess = PACKAGE;
+        private static final ThreadLocal<Inflater> inflater = new ThreadLocal<Inflater>() {
+            protected Inflater initialValue() {
+                return new Inflater(true);
+            }
+        };
 
-        boolean showDisassembled = false;
+        /** Per-thread copy of compressed bytes; Inflater only reads arrays. */
+        private static final ThreadLocal<byte[][]> input = new ThreadLocal<byte[][]>() {
+            protected byte[][] initialValue() {
+                return new byte[][] { new byte[8192] };
+            }
+        };
 
-        boolean showVerbose = false;
+        private final RandomAccessFile file;
 
-        boolean showInternalSigs = false;
+        private final MappedByteBuffer map;
 
-        String classPathString = null;
+        private final String[] names;
 
-        String bootClassPathString = null;
+        private final int[] methods;
 
-        String extDirsString = null;
+        private final int[] compressedSizes;
 
-        boolean extDirflag = false;
+        private final int[] sizes;
 
-        boolean nothingToDo = true;
+        private final int[] headerOffsets;
 
-        boolean showallAttr = false;
+        private final HashMap<String, Integer> byName;
 
-        String classpath = null;
+        private MappedZipFile(RandomAccessFile file, MappedByteBuffer map, int count) {
+            this.file = file;
+            this.map = map;
+            names = new String[count];
+            methods = new int[count];
+            compressedSizes = new int[count];
+            sizes = new int[count];
+            headerOffsets = new int[count];
+            byName = new HashMap<String, Integer>(count * 2);
+        }
 
-        int searchpath = start;
+        public static MappedZipFile open(File path) throws IOException {
+            final RandomAccessFile file = new RandomAccessFile(path, "r");
+            try {
+                final long length = file.length();
+                if (length > Integer.MAX_VALUE) {
+                    throw new ZipException("Archive too large to map: " + path);
+                }
+                final MappedByteBuffer map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                map.order(ByteOrder.LITTLE_ENDIAN);
+                final int end = findEnd(map);
+                if (end < 0) {
+                    throw new ZipException("No end of central directory: " + path);
+                }
+                final int count = map.getShort(end + 10) & 0xFFFF;
+                final int offset = map.getInt(end + 16);
+                if (count == 0xFFFF || offset == -1) {
+                    throw new ZipException("zip64 archive: " + path);
+                }
+                final MappedZipFile zip = new MappedZipFile(file, map, count);
+                zip.readCentralDirectory(offset);
+                return zip;
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            } catch (RuntimeException e) {
+                // Bounds errors from a damaged directory
+                file.close();
+                throw new ZipException("Invalid archive: " + path);
+            }
+        }
 
         /**
-         * According to which flags are set, returns file input stream for
-         * classfile to disassemble.
+         * Return the position of the end of central directory record,
+         * searching back over a trailing comment, or -1.
          */
-        public InputStream getFileInputStream(String Name) {
-            InputStream fileInStream = null;
-            searchpath = cmdboot;
-            try {
-                if (searchpath == cmdboot) {
-                    if (bootClassPathString != null) {
-                        // search in specified bootclasspath.
-                        classpath = bootClassPathString;
-                        if ((fileInStream = resolvefilename(Name)) != null)
-                            return fileInStream;
-                        // no classes found in search path.
-                        else
-                            searchpath = cmdextdir;
-                    } else
-                        searchpath = sunboot;
+        private static int findEnd(MappedByteBuffer map) {
+            final int last = map.capacity() - END_HEADER;
+            final int first = Math.max(0, last - 0xFFFF);
+            for (int pos = last; pos >= first; pos--) {
+                if (map.getInt(pos) == END_SIG) {
+                    return pos;
                 }
+            }
+            return -1;
+        }
 
-                if (searchpath == sunboot) {
-                    if (System.getProperty("sun.boot.class.path") != null) {
-                        // search in sun.boot.class.path
-                        classpath = System.getProperty("sun.boot.class.path");
-                        if ((fileInStream = resolvefilename(Name)) != null)
-                            return fileInStream;
-                        // no classes found in search path
-                        else
-                            searchpath = cmdextdir;
-                    } else
-                        searchpath = javaclass;
+        private void readCentralDirectory(int offset) throws ZipException {
+            int pos = offset;
+            for (int i = 0; i < names.length; i++) {
+                if (map.getInt(pos) != CEN_SIG) {
+                    throw new ZipException("Invalid central directory entry " + i);
                 }
-
-                if (searchpath == javaclass) {
-                    if (System.getProperty("java.class.path") != null) {
-                        // search in java.class.path
-                        classpath = System.getProperty("java.class.path");
-                        if ((fileInStream = resolvefilename(Name)) != null)
-                            return fileInStream;
-                        // no classes found in search path
-                        else
-                            searchpath = cmdextdir;
-                    } else
-                        searchpath = cmdextdir;
+                methods[i] = map.getShort(pos + 10) & 0xFFFF;
+                compressedSizes[i] = map.getInt(pos + 20);
+                sizes[i] = map.getInt(pos + 24);
+                headerOffsets[i] = map.getInt(pos + 42);
+                if (compressedSizes[i] < 0 || sizes[i] < 0 || headerOffsets[i] < 0) {
+                    throw new ZipException("zip64 entry " + i);
                 }
+                final int nameLength = map.getShort(pos + 28) & 0xFFFF;
+                final int extraLength = map.getShort(pos + 30) & 0xFFFF;
+                final int commentLength = map.getShort(pos + 32) & 0xFFFF;
+                names[i] = readName(pos + CEN_HEADER, nameLength);
+                byName.put(names[i], Integer.valueOf(i));
+                pos += CEN_HEADER + nameLength + extraLength + commentLength;
+            }
+        }
 
-                if (searchpath == cmdextdir) {
-                    if (extDirsString != null) {
-                        // search in specified extdir.
-                        classpath = extDirsString;
-                        extDirflag = true;
-                        if ((fileInStream = resolvefilename(Name)) != null)
-                            return fileInStream;
-                        // no classes found in search path
-                        else {
-                            searchpath = cmdclasspath;
-                            extDirflag = false;
-                        }
-                    } else
-                        searchpath = javaext;
+        /**
+         * Decode an entry name, without going through the charset for the
+         * usual ASCII names.
+         */
+        private String readName(int pos, int length) {
+            final char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                final byte b = map.get(pos + i);
+                if (b < 0) {
+                    final ByteBuffer bytes = map.duplicate();
+                    bytes.limit(pos + length);
+                    bytes.position(pos);
+                    return UTF8.decode(bytes).toString();
                 }
+                chars[i] = (char) b;
+            }
+            return new String(chars);
+        }
 
-                if (searchpath == javaext) {
-                    if (System.getProperty("java.ext.dirs") != null) {
-                        // search in java.ext.dirs
-                        classpath = System.getProperty("java.ext.dirs");
-                        extDirflag = true;
-                        if ((fileInStream = resolvefilename(Name)) != null)
-                            return fileInStream;
-                        // no classes found in search path
-                        else {
-                            searchpath = cmdclasspath;
-                            extDirflag = false;
-                        }
-                    } else
-                        searchpath = cmdclasspath;
-                }
-                if (searchpath == cmdclasspath) {
-                    if (classPathString != null) {
-                        // search in specified classpath.
-                        classpath = classPathString;
-                        if ((fileInStream = resolvefilename(Name)) != null)
-                            return fileInStream;
-                        // no classes found in search path
-                        else
-                            searchpath = 8;
-                    } else
-                        searchpath = envclasspath;
+        public int size() {
+            return names.length;
+        }
+
+        public String getName(int i) {
+            return names[i];
+        }
+
+        /**
+         * Return the bytes of the named entry, or null if there is no such
+         * entry. A STORED entry is a read-only view of the mapping.
+         */
+        public ByteBuffer read(String name) throws IOException {
+            final Integer entry = byName.get(name);
+            if (entry == null) {
+                return null;
+            }
+            final int i = entry.intValue();
+            final int header = headerOffsets[i];
+            if (map.getInt(header) != LOC_SIG) {
+                throw new ZipException("Invalid local header: " + name);
+            }
+            final int data = header + LOC_HEADER + (map.getShort(header + 26) & 0xFFFF)
+                    + (map.getShort(header + 28) & 0xFFFF);
+            final ByteBuffer raw = map.duplicate();
+            raw.limit(data + compressedSizes[i]);
+            raw.position(data);
+            switch (methods[i]) {
+            case ZipEntry.STORED:
+                return raw.slice();
+            case ZipEntry.DEFLATED:
+                return inflate(raw, sizes[i], name);
+            default:
+                throw new ZipException("Unsupported compression method " + methods[i] + ": " + name);
+            }
+        }
+
+        private static ByteBuffer inflate(ByteBuffer raw, int size, String name) throws IOException {
+            final byte[][] slot = input.get();
+            final int length = raw.remaining();
+            if (slot[0].length < length) {
+                slot[0] = new byte[length];
+            }
+            raw.get(slot[0], 0, length);
+            final Inflater inf = inflater.get();
+            inf.reset();
+            inf.setInput(slot[0], 0, length);
+            final byte[] out = ClassBuffers.take(size);
+            int total = 0;
+            try {
+                while (total < size) {
+                    final int n = inf.inflate(out, total, size - total);
+                    if (n == 0 && (inf.finished() || inf.needsInput() || inf.needsDictionary())) {
+                        break;
+                    }
+                    total += n;
                 }
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid deflated data: " + name);
+            }
+            if (total != size) {
+                throw new ZipException("Entry shorter than its size: " + name);
+            }
+            return ClassBuffers.lend(out, total);
+        }
 
-                if (searchpath == envclasspath) {
-                    if (System.getProperty("env.class.path") != null) {
-                        // search in env.class.path
-                        classpath = System.getProperty("env.class.path");
-                        if ((fileInStream = resolvefilename(Name)) != null)
-                            return fileInStream;
-                        // no classes found in search path.
-                        else
-                            searchpath = javaclasspath;
-                    } else
-                        searchpath = javaclasspath;
+        /**
+         * Close the file. Buffers already returned stay readable.
+         */
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    /**
+     * Bounded pool of open jar files shared by all JavapEnvironments, so a
+     * jar's central directory is read once rather than on every lookup.
+     * Handles are keyed by canonical path; a handle whose file has been
+     * modified since it was opened is replaced. The least recently used
+     * handle is closed when the pool is full, and handles unused for
+     * idleMillis are closed on the next access. A handle in use by a read
+     * is closed only when that read completes.
+     *
+     * Jars are read through MappedZipFile, or through JarFile for archives
+     * it does not handle.
+     */
+    public static class JarFilePool {
+
+        /** One open jar; users and evicted are guarded by the pool. */
+        private static final class Handle {
+            final MappedZipFile zip;
+
+            final JarFile jar;
+
+            final long modified;
+
+            long lastUsed;
+
+            int users = 0;
+
+            boolean evicted = false;
+
+            Handle(MappedZipFile zip, JarFile jar, long modified) {
+                this.zip = zip;
+                this.jar = jar;
+                this.modified = modified;
+            }
+
+            void close() {
+                try {
+                    if (zip != null) {
+                        zip.close();
+                    } else {
+                        jar.close();
+                    }
+                } catch (IOException e) {
+                    // Nothing more to release.
                 }
+            }
+        }
 
-                if (searchpath == javaclasspath) {
-                    if (("application.home") == null) {
-                        // search in java.class.path
-                        classpath = System.getProperty("java.class.path");
-                        if ((fileInStream = resolvefilename(Name)) != null)
-                            return fileInStream;
-                        // no classes found in search path.
-                        else
-                            searchpath = currentdir;
-                    } else
-                        searchpath = currentdir;
+        private final LinkedHashMap<String, Handle> handles = new LinkedHashMap<String, Handle>(16, 0.75f, true);
+
+        private final int maxOpen;
+
+        private final long idleMillis;
+
+        private long lastSweep = System.currentTimeMillis();
+
+        public JarFilePool(int maxOpen, long idleMillis) {
+            this.maxOpen = maxOpen;
+            this.idleMillis = idleMillis;
+        }
+
+        /**
+         * Return the bytes of the named entry of a jar, read into a
+         * ClassBuffers buffer, or null if the jar has no such entry.
+         */
+        public ByteBuffer readEntry(File file, String entryName) throws IOException {
+            final Handle handle = acquire(file);
+            try {
+                if (handle.zip != null) {
+                    return handle.zip.read(entryName);
+                }
+                final ZipEntry entry = handle.jar.getEntry(entryName);
+                if (entry == null) {
+                    return null;
+                }
+                final InputStream filein = handle.jar.getInputStream(entry);
+                try {
+                    return ClassBuffers.read(filein, entry.getSize());
+                } finally {
+                    filein.close();
                 }
+            } finally {
+                release(handle);
+            }
+        }
 
-                if (searchpath == currentdir) {
-                    classpath = ".";
-                    // search in current dir.
-                    if ((fileInStream = resolvefilename(Name)) != null)
-                        return fileInStream;
-                    else {
-                        // no classes found in search path.
-                        error("Could not find " + Name);
-                        System.exit(1);
+        private Handle acquire(File file) throws IOException {
+            final String path = file.getCanonicalPath();
+            final long modified = file.lastModified();
+            final long now = System.currentTimeMillis();
+            synchronized (this) {
+                if (now - lastSweep > idleMillis) {
+                    sweep(now);
+                }
+                final Handle handle = handles.get(path);
+                if (handle != null) {
+                    if (handle.modified == modified) {
+                        handle.users++;
+                        handle.lastUsed = now;
+                        return handle;
                     }
+                    handles.remove(path);
+                    evict(handle);
                 }
+            }
+            // Open outside the lock; another thread may race us to it.
+            final Handle opened = open(file, modified);
+            synchronized (this) {
+                final Handle other = handles.get(path);
+                if (other != null && other.modified == modified) {
+                    opened.close();
+                    other.users++;
+                    other.lastUsed = now;
+                    return other;
+                }
+                if (other != null) {
+                    handles.remove(path);
+                    evict(other);
+                }
+                final Handle handle = opened;
+                handle.users = 1;
+                handle.lastUsed = now;
+                handles.put(path, handle);
+                final Iterator<Handle> it = handles.values().iterator();
+                while (handles.size() > maxOpen && it.hasNext()) {
+                    final Handle eldest = it.next();
+                    if (eldest != handle) {
+                        it.remove();
+                        evict(eldest);
+                    }
+                }
+                return handle;
+            }
+        }
 
-            } catch (SecurityException excsec) {
-                excsec.printStackTrace();
-                error("fatal exception");
-            } catch (NullPointerException excnull) {
-                excnull.printStackTrace();
-                error("fatal exception");
-            } catch (IllegalArgumentException excill) {
-                excill.printStackTrace();
-                error("fatal exception");
+        private static Handle open(File file, long modified) throws IOException {
+            try {
+                return new Handle(MappedZipFile.open(file), null, modified);
+            } catch (ZipException e) {
+                return new Handle(null, new JarFile(file), modified);
+            }
+        }
+
+        private synchronized void release(Handle handle) {
+            handle.users--;
+            if (handle.evicted && handle.users == 0) {
+                handle.close();
+            }
+        }
+
+        /**
+         * Close handles that have not been used for idleMillis.
+         */
+        private void sweep(long now) {
+            lastSweep = now;
+            final Iterator<Handle> it = handles.values().iterator();
+            while (it.hasNext()) {
+                final Handle handle = it.next();
+                if (now - handle.lastUsed > idleMillis) {
+                    it.remove();
+                    evict(handle);
+                }
             }
+        }
 
-            return null;
+        private void evict(Handle handle) {
+            handle.evicted = true;
+            if (handle.users == 0) {
+                handle.close();
+            }
         }
 
-        public void error(String msg) {
-            System.err.println("ERROR:" + msg);
+        public synchronized int size() {
+            return handles.size();
         }
 
         /**
-         * Resolves file name for classfile to disassemble.
+         * Close every idle handle and forget the rest; they are closed
+         * when their reads finish.
          */
-        public InputStream resolvefilename(String name) {
-            String classname = name.replace('.', '/') + ".class";
-            while (true) {
-                InputStream instream = extDirflag ? resolveExdirFilename(classname) : resolveclasspath(classname);
-                if (instream != null)
-                    return instream;
-                int lastindex = classname.lastIndexOf('/');
-                if (lastindex == -1)
-                    return null;
-                classname = classname.substring(0, lastindex) + "$" + classname.substring(lastindex + 1);
+        public synchronized void closeAll() {
+            final Iterator<Handle> it = handles.values().iterator();
+            while (it.hasNext()) {
+                final Handle handle = it.next();
+                it.remove();
+                evict(handle);
             }
         }
+    }
+
+    /**
+     * Index of the jars on one class path, mapping each class file entry
+     * name to the first root that holds it, so a lookup costs one hash
+     * probe instead of a walk over every jar. Directory roots are not
+     * walked; the file is checked directly in each directory ahead of the
+     * owning jar, which keeps the javap search order. The jars are read in
+     * parallel when the index is built, and a root whose modification time
+     * changes is re-read on its own.
+     *
+     * For extension directories the roots are the jars listed in each
+     * directory, in listing order, merged into one index; the directory
+     * itself is probed for loose class files. The listings are taken again
+     * when a directory's modification time changes.
+     */
+    public static class ClasspathIndex {
+
+        private static final int KIND_NONE = 0;
+
+        private static final int KIND_DIR = 1;
+
+        private static final int KIND_JAR = 2;
+
+        /** How often the roots are checked for changes. */
+        static final long CHECK_MILLIS = 2000L;
+
+        static final int MAX_INDEXES = 16;
+
+        private static final ConcurrentHashMap<String, ClasspathIndex> indexes = new ConcurrentHashMap<String, ClasspathIndex>();
+
+        private static final ConcurrentHashMap<String, ClasspathIndex> extIndexes = new ConcurrentHashMap<String, ClasspathIndex>();
+
+        private final File[] roots;
+
+        private final int[] kinds;
+
+        private final long[] modified;
+
+        /** Class file names in each jar root, empty for other roots. */
+        private final List<Set<String>> entries;
+
+        /** Entry name to the index of the first jar root holding it. */
+        private final HashMap<String, Integer> owners = new HashMap<String, Integer>(4096);
+
+        private long lastCheck;
+
+        /** Set while one thread re-reads changed roots. */
+        private boolean refreshing;
+
+        /** When a change to a root was last noticed, 0 if never. */
+        private long lastChange;
+
+        /** Extension directories the roots were listed from, or null. */
+        private File[] dirs;
+
+        private long[] dirsModified;
+
+        private long lastDirsCheck;
+
+        private ClasspathIndex(File[] roots) {
+            this.roots = roots;
+            kinds = new int[roots.length];
+            modified = new long[roots.length];
+            entries = new ArrayList<Set<String>>(roots.length);
+        }
+
+        private static ClasspathIndex forRoots(File[] roots) {
+            final ClasspathIndex index = new ClasspathIndex(roots);
+            index.build();
+            return index;
+        }
 
         /**
-         * Resolves file name for classfile to disassemble if flag exdir is set.
+         * Return the index for a class path, building it on first use.
          */
-        public InputStream resolveExdirFilename(String classname) {
-            if (classpath.indexOf(File.pathSeparator) != -1) {
-                // separates path
-                StringTokenizer st = new StringTokenizer(classpath, File.pathSeparator);
+        public static ClasspathIndex forPath(String classpath) {
+            ClasspathIndex index = indexes.get(classpath);
+            if (index == null) {
+                final StringTokenizer st = new StringTokenizer(classpath, File.pathSeparator);
+                final List<File> paths = new ArrayList<File>();
                 while (st.hasMoreTokens()) {
-                    String path = st.nextToken();
-                    InputStream in = resolveExdirFilenamehelper(path, classname);
-                    if (in != null)
-                        return in;
+                    paths.add(new File(st.nextToken().trim()));
                 }
-            } else
-                return (resolveExdirFilenamehelper(classpath, classname));
+                index = forRoots(paths.toArray(new File[paths.size()]));
+                evictOne(indexes);
+                final ClasspathIndex other = indexes.putIfAbsent(classpath, index);
+                if (other != null) {
+                    index = other;
+                }
+            }
+            return index;
+        }
 
-            return null;
+        /**
+         * Return the index for a list of extension directories. It is
+         * rebuilt when one of the directories has changed.
+         */
+        public static ClasspathIndex forExtDirs(String extdirs) {
+            ClasspathIndex index = extIndexes.get(extdirs);
+            if (index != null && !index.dirsChanged()) {
+                return index;
+            }
+            final StringTokenizer st = new StringTokenizer(extdirs, File.pathSeparator);
+            final List<File> dirList = new ArrayList<File>();
+            final List<File> paths = new ArrayList<File>();
+            while (st.hasMoreTokens()) {
+                final File dir = new File(st.nextToken());
+                dirList.add(dir);
+                final File[] filelist = dir.listFiles();
+                if (filelist == null) {
+                    continue;
+                }
+                boolean probeDir = false;
+                for (int i = 0; i < filelist.length; i++) {
+                    if (filelist[i].toString().endsWith(".jar")) {
+                        paths.add(filelist[i]);
+                    } else if (!probeDir) {
+                        // a loose class file would sit in the directory itself.
+                        paths.add(dir);
+                        probeDir = true;
+                    }
+                }
+            }
+            index = forRoots(paths.toArray(new File[paths.size()]));
+            index.dirs = dirList.toArray(new File[dirList.size()]);
+            index.dirsModified = new long[index.dirs.length];
+            for (int i = 0; i < index.dirs.length; i++) {
+                index.dirsModified[i] = index.dirs[i].lastModified();
+            }
+            index.lastDirsCheck = System.currentTimeMillis();
+            if (!extIndexes.containsKey(extdirs)) {
+                evictOne(extIndexes);
+            }
+            extIndexes.put(extdirs, index);
+            return index;
         }
 
         /**
-         * Resolves file name for classfile to disassemble.
+         * Drop one index from a full table to make room for another.
          */
-        public InputStream resolveclasspath(String classname) {
-            if (classpath.indexOf(File.pathSeparator) != -1) {
-                StringTokenizer st = new StringTokenizer(classpath, File.pathSeparator);
-                // separates path.
-                while (st.hasMoreTokens()) {
-                    String path = (st.nextToken()).trim();
-                    InputStream in = resolveclasspathhelper(path, classname);
-                    if (in != null)
-                        return in;
+        private static void evictOne(ConcurrentHashMap<String, ClasspathIndex> table) {
+            if (table.size() >= MAX_INDEXES) {
+                final Iterator<String> it = table.keySet().iterator();
+                if (it.hasNext()) {
+                    it.next();
+                    it.remove();
+                }
+            }
+        }
 
+        /**
+         * Return true if an extension directory has been modified since it
+         * was listed, checked at most once per CHECK_MILLIS.
+         */
+        private synchronized boolean dirsChanged() {
+            final long now = System.currentTimeMillis();
+            if (now - lastDirsCheck < CHECK_MILLIS) {
+                return false;
+            }
+            lastDirsCheck = now;
+            for (int i = 0; i < dirs.length; i++) {
+                if (dirs[i].lastModified() != dirsModified[i]) {
+                    return true;
                 }
-                return null;
-            } else
-                return (resolveclasspathhelper(classpath, classname));
+            }
+            return false;
         }
 
         /**
-         * Returns file input stream for classfile to disassemble if exdir is
-         * set.
+         * Read every jar root, one task per jar, and merge the results in
+         * class path order.
          */
-        public InputStream resolveExdirFilenamehelper(String path, String classname) {
-            File fileobj = new File(path);
-            if (fileobj.isDirectory()) {
-                // gets list of files in that directory.
-                File[] filelist = fileobj.listFiles();
-                for (int i = 0; i < filelist.length; i++) {
-                    try {
-                        // file is a jar file.
-                        if (filelist[i].toString().endsWith(".jar")) {
-                            JarFile jfile = new JarFile(filelist[i]);
-                            if ((jfile.getEntry(classname)) != null) {
-
-                                InputStream filein = jfile.getInputStream(jfile.getEntry(classname));
-                                int bytearraysize = filein.available();
-                                byte[] b = new byte[bytearraysize];
-                                int totalread = 0;
-                                while (totalread < bytearraysize) {
-                                    totalread += filein.read(b, totalread, bytearraysize - totalread);
-                                }
-                                InputStream inbyte = new ByteArrayInputStream(b);
-                                filein.close();
-                                return inbyte;
-                            }
-                        } else {
-                            // not a jar file.
-                            String filename = path + "/" + classname;
-                            File file = new File(filename);
-                            if (file.isFile()) {
-                                return (new FileInputStream(file));
-                            }
+        private synchronized void build() {
+            final List<Future<Set<String>>> pending = new ArrayList<Future<Set<String>>>(roots.length);
+            final int threads = Math.max(1, Math.min(roots.length, Runtime.getRuntime().availableProcessors()));
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                for (int i = 0; i < roots.length; i++) {
+                    final File root = roots[i];
+                    modified[i] = root.lastModified();
+                    kinds[i] = kindOf(root);
+                    pending.add(kinds[i] != KIND_JAR ? null : executor.submit(new Callable<Set<String>>() {
+                        public Set<String> call() {
+                            return readNames(root);
+                        }
+                    }));
+                }
+                for (int i = 0; i < roots.length; i++) {
+                    Set<String> names = Collections.emptySet();
+                    if (pending.get(i) != null) {
+                        try {
+                            names = pending.get(i).get();
+                        } catch (ExecutionException e) {
+                            kinds[i] = KIND_NONE;
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            names = readNames(roots[i]);
+                        }
+                    }
+                    entries.add(names);
+                    for (String name : names) {
+                        if (!owners.containsKey(name)) {
+                            owners.put(name, Integer.valueOf(i));
                         }
-                    } catch (FileNotFoundException fnexce) {
-                        fnexce.printStackTrace();
-                        error("cant read file");
-                        error("fatal exception");
-                    } catch (IOException ioexc) {
-                        ioexc.printStackTrace();
-                        error("fatal exception");
                     }
                 }
+            } finally {
+                executor.shutdown();
             }
+            lastCheck = System.currentTimeMillis();
+        }
 
-            return null;
+        private static int kindOf(File root) {
+            if (root.isDirectory()) {
+                return KIND_DIR;
+            }
+            return (root.isFile() && root.toString().endsWith(".jar")) ? KIND_JAR : KIND_NONE;
         }
 
         /**
-         * Returns file input stream for classfile to disassemble.
+         * Return the class file entry names of a jar, empty if it cannot be
+         * read.
          */
-        public InputStream resolveclasspathhelper(String path, String classname) {
-            File fileobj = new File(path);
+        private static Set<String> readNames(File jar) {
+            final Set<String> names = new HashSet<String>();
             try {
-                if (fileobj.isDirectory()) {
-                    // is a directory.
-                    String filename = path + "/" + classname;
-                    File file = new File(filename);
-                    if (file.isFile()) {
-                        return (new FileInputStream(file));
+                final MappedZipFile mapped = MappedZipFile.open(jar);
+                try {
+                    for (int i = 0; i < mapped.size(); i++) {
+                        if (mapped.getName(i).endsWith(".class")) {
+                            names.add(mapped.getName(i));
+                        }
                     }
-
-                } else if (fileobj.isFile()) {
-                    if (fileobj.toString().endsWith(".jar")) {
-                        // is a jar file.
-                        JarFile jfile = new JarFile(fileobj);
-                        if ((jfile.getEntry(classname)) != null) {
-                            InputStream filein = jfile.getInputStream(jfile.getEntry(classname));
-                            int bytearraysize = filein.available();
-                            byte[] b = new byte[bytearraysize];
-                            int totalread = 0;
-                            while (totalread < bytearraysize) {
-                                totalread += filein.read(b, totalread, bytearraysize - totalread);
-                            }
-                            InputStream inbyte = new ByteArrayInputStream(b);
-                            filein.close();
-                            return inbyte;
+                } finally {
+                    mapped.close();
+                }
+                return names;
+            } catch (ZipException e) {
+                // Read it with ZipFile below
+            } catch (IOException e) {
+                return names;
+            }
+            try {
+                final ZipFile zip = new ZipFile(jar);
+                try {
+                    final Enumeration<? extends ZipEntry> en = zip.entries();
+                    while (en.hasMoreElements()) {
+                        final String name = en.nextElement().getName();
+                        if (name.endsWith(".class")) {
+                            names.add(name);
                         }
                     }
+                } finally {
+                    zip.close();
                 }
-            } catch (FileNotFoundException fnexce) {
-                fnexce.printStackTrace();
-                error("cant read file");
-                error("fatal exception");
-            } catch (IOException ioexce) {
-                ioexce.printStackTrace();
-                error("fatal exception");
+            } catch (IOException e) {
+                names.clear();
             }
-            return null;
+            return names;
         }
 
         /**
-         * @return the showLineAndLocal
+         * Re-read roots whose modification time has changed, at most once
+         * per CHECK_MILLIS and by one thread at a time. The roots are
+         * checked and read without holding the index lock, so lookups go on
+         * against the old entries until the new ones are swapped in.
          */
-        public boolean isShowLineAndLocal() {
-            return showLineAndLocal;
+        private void refresh() {
+            synchronized (this) {
+                final long now = System.currentTimeMillis();
+                if (refreshing || now - lastCheck < CHECK_MILLIS) {
+                    return;
+                }
+                lastCheck = now;
+                refreshing = true;
+            }
+            try {
+                final List<Integer> changed = new ArrayList<Integer>();
+                for (int i = 0; i < roots.length; i++) {
+                    final long m = roots[i].lastModified();
+                    if (m != modified[i]) {
+                        modified[i] = m;
+                        changed.add(Integer.valueOf(i));
+                    }
+                }
+                if (changed.isEmpty()) {
+                    return;
+                }
+                final int[] newKinds = new int[changed.size()];
+                final List<Set<String>> newEntries = new ArrayList<Set<String>>(changed.size());
+                for (int k = 0; k < newKinds.length; k++) {
+                    final File root = roots[changed.get(k).intValue()];
+                    newKinds[k] = kindOf(root);
+                    newEntries.add((newKinds[k] == KIND_JAR) ? readNames(root) : Collections.<String> emptySet());
+                }
+                synchronized (this) {
+                    for (int k = 0; k < newKinds.length; k++) {
+                        reindex(changed.get(k).intValue(), newKinds[k], newEntries.get(k));
+                    }
+                    lastChange = System.currentTimeMillis();
+                }
+            } finally {
+                synchronized (this) {
+                    refreshing = false;
+                }
+            }
         }
 
         /**
-         * @param showLineAndLocal
-         *            the showLineAndLocal to set
+         * Replace the entries of one root and recompute the owner of every
+         * name it held before or holds now.
          */
-        public void setShowLineAndLocal(boolean showLineAndLocal) {
-            this.showLineAndLocal = showLineAndLocal;
+        private void reindex(int i, int kind, Set<String> now) {
+            kinds[i] = kind;
+            final Set<String> old = entries.get(i);
+            entries.set(i, now);
+            final Set<String> changed = new HashSet<String>(old);
+            changed.addAll(now);
+            for (String name : changed) {
+                owners.remove(name);
+                for (int j = 0; j < roots.length; j++) {
+                    if (entries.get(j).contains(name)) {
+                        owners.put(name, Integer.valueOf(j));
+                        break;
+                    }
+                }
+            }
         }
 
         /**
-         * @return the showAccess
+         * Returns input stream for the class file entry name, e.g.
+         * java/lang/String.class, or null if no root holds it.
          */
-        public int getShowAccess() {
-            return showAccess;
+        public InputStream open(String classname) throws IOException {
+            refresh();
+            final int owner;
+            final int[] kindsNow;
+            synchronized (this) {
+                final Integer o = owners.get(classname);
+                owner = (o == null) ? roots.length : o.intValue();
+                kindsNow = kinds.clone();
+            }
+            for (int i = 0; i < owner; i++) {
+                if (kindsNow[i] == KIND_DIR) {
+                    final File file = new File(roots[i].getPath() + "/" + classname);
+                    if (file.isFile()) {
+                        return new FileInputStream(file);
+                    }
+                }
+            }
+            if (owner < roots.length) {
+                final ByteBuffer b = JavapEnvironment.JAR_POOL.readEntry(roots[owner], classname);
+                if (b != null) {
+                    return new BufferInputStream(b);
+                }
+            }
+            return null;
         }
 
         /**
-         * @param showAccess
-         *            the showAccess to set
+         * Return true if a root may have gained the class file entry name,
+         * e.g. java/lang/String.class, since time: a jar or an extension
+         * directory has changed, or the package directory of name under a
+         * directory root.
          */
-        public void setShowAccess(int showAccess) {
-            this.showAccess = showAccess;
+        public boolean changedSince(String classname, long time) {
+            refresh();
+            final int[] kindsNow;
+            synchronized (this) {
+                if (lastChange > time) {
+                    return true;
+                }
+                kindsNow = kinds.clone();
+            }
+            if (dirs != null) {
+                for (int i = 0; i < dirs.length; i++) {
+                    if (dirs[i].lastModified() > time) {
+                        return true;
+                    }
+                }
+            }
+            final int slash = classname.lastIndexOf('/');
+            for (int i = 0; i < roots.length; i++) {
+                if (kindsNow[i] == KIND_DIR) {
+                    final File pkg = (slash < 0) ? roots[i] : new File(roots[i], classname.substring(0, slash));
+                    if (pkg.lastModified() > time) {
+                        return true;
+                    }
+                }
+            }
+            return false;
         }
 
-        /**
-         * @return the showDisassembled
-         */
-        public boolean isShowDisassembled() {
-            return showDisassembled;
+        public synchronized int size() {
+            return owners.size();
         }
+    }
 
-        /**
-         * @param showDisassembled
-         *            the showDisassembled to set
-         */
-        public void setShowDisassembled(boolean showDisassembled) {
-            this.showDisassembled = showDisassembled;
-        }
+    /**
+     * Finds JDK classes in the jrt:/ module image of Java 9 and later,
+     * where sun.boot.class.path and java.ext.dirs are no longer set. The
+     * package to module table is read once from /packages; a class is
+     * then read straight from /modules/module/name. Building needs the
+     * java.nio.file API of Java 7; at run time the class is only used
+     * when the JDK has a module image.
+     */
+    public static class JrtIndex {
 
-        /**
-         * @return the showVerbose
-         */
-        public boolean isShowVerbose() {
-            return showVerbose;
+        private static volatile JrtIndex instance;
+
+        private static volatile boolean failed = false;
+
+        private final FileSystem fs;
+
+        /** Package, in internal form, to the modules holding it. */
+        private final HashMap<String, String[]> modules = new HashMap<String, String[]>(2048);
+
+        private JrtIndex(FileSystem fs) throws IOException {
+            this.fs = fs;
+            final DirectoryStream<Path> packages = Files.newDirectoryStream(fs.getPath("/packages"));
+            try {
+                for (Path pkg : packages) {
+                    final List<String> names = new ArrayList<String>(1);
+                    final DirectoryStream<Path> links = Files.newDirectoryStream(pkg);
+                    try {
+                        for (Path module : links) {
+                            names.add(module.getFileName().toString());
+                        }
+                    } finally {
+                        links.close();
+                    }
+                    modules.put(pkg.getFileName().toString().replace('.', '/'), names.toArray(new String[names.size()]));
+                }
+            } finally {
+                packages.close();
+            }
         }
 
         /**
-         * @param showVerbose
-         *            the showVerbose to set
+         * Return true if the running JDK has a module image.
          */
-        public void setShowVerbose(boolean showVerbose) {
-            this.showVerbose = showVerbose;
+        public static boolean available() {
+            return !failed && new File(System.getProperty("java.home"), "lib" + File.separator + "modules").isFile();
         }
 
         /**
-         * @return the showInternalSigs
+         * Return the shared index, building it on first use, or null if
+         * the image cannot be read.
          */
-        public boolean isShowInternalSigs() {
-            return showInternalSigs;
+        public static JrtIndex get() {
+            JrtIndex index = instance;
+            if (index == null && available()) {
+                synchronized (JrtIndex.class) {
+                    if (instance == null && !failed) {
+                        try {
+                            instance = new JrtIndex(FileSystems.getFileSystem(URI.create("jrt:/")));
+                        } catch (IOException e) {
+                            failed = true;
+                        } catch (RuntimeException e) {
+                            // No jrt provider
+                            failed = true;
+                        }
+                    }
+                    index = instance;
+                }
+            }
+            return index;
         }
 
         /**
-         * @param showInternalSigs
-         *            the showInternalSigs to set
+         * Returns input stream for the class file entry name, e.g.
+         * java/lang/String.class, or null if it is not in the image.
          */
-        public void setShowInternalSigs(boolean showInternalSigs) {
-            this.showInternalSigs = showInternalSigs;
+        public static InputStream open(String classname) throws IOException {
+            final JrtIndex index = get();
+            return (index == null) ? null : index.openClass(classname);
         }
 
-        /**
-         * @return the showallAttr
-         */
-        public boolean isShowallAttr() {
-            return showallAttr;
+        private InputStream openClass(String classname) throws IOException {
+            final int slash = classname.lastIndexOf('/');
+            final String[] holders = modules.get((slash < 0) ? "" : classname.substring(0, slash));
+            if (holders == null) {
+                return null;
+            }
+            for (int i = 0; i < holders.length; i++) {
+                final Path path = fs.getPath("/modules/" + holders[i] + "/" + classname);
+                if (Files.isRegularFile(path)) {
+                    final InputStream in = Files.newInputStream(path);
+                    try {
+                        return new BufferInputStream(ClassBuffers.read(in, Files.size(path)));
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+            return null;
         }
 
-        /**
-         * @param showallAttr
-         *            the showallAttr to set
-         */
-        public void setShowallAttr(boolean showallAttr) {
-            this.showallAttr = showallAttr;
+        public int size() {
+            return modules.size();
         }
     }
 
@@ -3622,6 +6105,16 @@ public class TestRuntimeWrapper {
             access = in.readUnsignedShort();
         } // end read
 
+        /**
+         * Read Innerclass attribute data from a class file buffer.
+         */
+        public void read(ByteBuffer in) {
+            inner_class_info_index = in.getShort() & 0xFFFF;
+            outer_class_info_index = in.getShort() & 0xFFFF;
+            inner_name_index = in.getShort() & 0xFFFF;
+            access = in.getShort() & 0xFFFF;
+        }
+
         /**
          * Returns the access of this class or interface.
          */
@@ -3666,7 +6159,7 @@ public class TestRuntimeWrapper {
 
         boolean isDeprecated = false;
 
-        Vector attrs;
+        Vector<AttrData> attrs;
 
         public FieldData(ClassData cls) {
             this.cls = cls;
@@ -3681,7 +6174,7 @@ public class TestRuntimeWrapper {
             descriptor_index = in.readUnsignedShort();
             // Read the attributes
             int attributes_count = in.readUnsignedShort();
-            attrs = new Vector(attributes_count);
+            attrs = new Vector<AttrData>(attributes_count);
             for (int i = 0; i < attributes_count; i++) {
                 int attr_name_index = in.readUnsignedShort();
                 if (cls.getTag(attr_name_index) != CONSTANT_UTF8)
@@ -3717,6 +6210,50 @@ public class TestRuntimeWrapper {
 
         } // end read
 
+        /**
+         * Read and store field info from a class file buffer.
+         */
+        public void read(ByteBuffer in) {
+            access = in.getShort() & 0xFFFF;
+            name_index = in.getShort() & 0xFFFF;
+            descriptor_index = in.getShort() & 0xFFFF;
+            // Read the attributes
+            int attributes_count = in.getShort() & 0xFFFF;
+            attrs = new Vector<AttrData>(attributes_count);
+            for (int i = 0; i < attributes_count; i++) {
+                int attr_name_index = in.getShort() & 0xFFFF;
+                if (cls.getTag(attr_name_index) != CONSTANT_UTF8)
+                    continue;
+                String attr_name = cls.getString(attr_name_index);
+                if (attr_name.equals("ConstantValue")) {
+                    if (in.getInt() != 2)
+                        throw new ClassFormatError("invalid ConstantValue attr length");
+                    value_cpx = in.getShort() & 0xFFFF;
+                    AttrData attr = new AttrData(cls);
+                    attr.read(attr_name_index);
+                    attrs.addElement(attr);
+                } else if (attr_name.equals("Synthetic")) {
+                    if (in.getInt() != 0)
+                        throw new ClassFormatError("invalid Synthetic attr length");
+                    isSynthetic = true;
+                    AttrData attr = new AttrData(cls);
+                    attr.read(attr_name_index);
+                    attrs.addElement(attr);
+                } else if (attr_name.equals("Deprecated")) {
+                    if (in.getInt() != 0)
+                        throw new ClassFormatError("invalid Synthetic attr length");
+                    isDeprecated = true;
+                    AttrData attr = new AttrData(cls);
+                    attr.read(attr_name_index);
+                    attrs.addElement(attr);
+                } else {
+                    AttrData attr = new AttrData(cls);
+                    attr.read(attr_name_index, in);
+                    attrs.addElement(attr);
+                }
+            }
+        }
+
         /**
          * Returns access of a field.
          */
@@ -3759,7 +6296,7 @@ public class TestRuntimeWrapper {
          * Returns java type signature of a field.
          */
         public String getType() {
-            return new TypeSignature(getInternalSig()).getFieldType();
+            return TypeSignature.forDescriptor(getInternalSig()).getFieldType();
         }
 
         /**
@@ -3831,10 +6368,30 @@ public class TestRuntimeWrapper {
             offset = in.readUnsignedShort();
             int local_size = in.readUnsignedShort();
             locals = readTypeArray(in, local_size, method);
-            int stack_size = in.readUnsignedShort();
+            int stack_size = in.readUnsignedShort();
+            stack = readTypeArray(in, stack_size, method);
+        }
+
+        StackMapData(ByteBuffer in, MethodData method) {
+            offset = in.getShort() & 0xFFFF;
+            int local_size = in.getShort() & 0xFFFF;
+            locals = readTypeArray(in, local_size, method);
+            int stack_size = in.getShort() & 0xFFFF;
             stack = readTypeArray(in, stack_size, method);
         }
 
+        static final int[] readTypeArray(ByteBuffer in, int length, MethodData method) {
+            int[] types = new int[length];
+            for (int i = 0; i < length; i++) {
+                int type = in.get() & 0xFF;
+                if (type == RuntimeConstants.ITEM_Object || type == RuntimeConstants.ITEM_NewObject) {
+                    type = type | ((in.getShort() & 0xFFFF) << 8);
+                }
+                types[i] = type;
+            }
+            return types;
+        }
+
         static final int[] readTypeArray(DataInputStream in, int length, MethodData method) throws IOException {
             int[] types = new int[length];
             for (int i = 0; i < length; i++) {
@@ -3873,6 +6430,69 @@ public class TestRuntimeWrapper {
         }
     }
 
+    /**
+     * Bounded, weak-valued intern table for constant pool strings, shared by
+     * every ClassData so common names and descriptors such as
+     * java/lang/Object, ()V and Code are held once. Entries disappear when
+     * no parsed class refers to them any more, and a full segment drops an
+     * entry to make room. The table is split into separately locked
+     * segments so concurrent parses rarely contend.
+     */
+    public static class Utf8Interner {
+
+        /**
+         * Longer strings are mostly literals and are not worth sharing.
+         */
+        public static final int MAX_LENGTH = 256;
+
+        private final List<WeakHashMap<String, WeakReference<String>>> segments;
+
+        private final int maxPerSegment;
+
+        public Utf8Interner(int concurrency, int maxEntries) {
+            int n = 1;
+            while (n < concurrency) {
+                n <<= 1;
+            }
+            segments = new ArrayList<WeakHashMap<String, WeakReference<String>>>(n);
+            for (int i = 0; i < n; i++) {
+                segments.add(new WeakHashMap<String, WeakReference<String>>());
+            }
+            maxPerSegment = Math.max(1, maxEntries / n);
+        }
+
+        /**
+         * Returns the shared instance equal to str, adding str if there is
+         * none and the table has room.
+         */
+        public String intern(String str) {
+            if (str.length() > MAX_LENGTH) {
+                return str;
+            }
+            final int h = str.hashCode();
+            final WeakHashMap<String, WeakReference<String>> segment = segments.get((h ^ (h >>> 16)) & (segments.size() - 1));
+            synchronized (segment) {
+                final WeakReference<String> ref = segment.get(str);
+                if (ref != null) {
+                    final String shared = ref.get();
+                    if (shared != null) {
+                        return shared;
+                    }
+                }
+                if (segment.size() >= maxPerSegment) {
+                    // Make room; the dropped string stays valid for its holders
+                    final Iterator<String> it = segment.keySet().iterator();
+                    if (it.hasNext()) {
+                        it.next();
+                        it.remove();
+                    }
+                }
+                segment.put(str, new WeakReference<String>(str));
+            }
+            return str;
+        }
+    }
+
     // From: http://hg.openjdk.java.net/jdk7/jaxp/langtools/
     /**
      * Central data repository of the Java Disassembler. Stores all the
@@ -3882,6 +6502,11 @@ public class TestRuntimeWrapper {
      */
     public static class ClassData implements RuntimeConstants {
 
+        /**
+         * UTF8 constants decoded by any ClassData are shared through this.
+         */
+        static final Utf8Interner SHARED_UTF8 = new Utf8Interner(16, 32768);
+
         private int magic;
 
         private int minor_version;
@@ -3890,7 +6515,18 @@ public class TestRuntimeWrapper {
 
         private int cpool_count;
 
-        private Object cpool[];
+        /**
+         * Constant pool storage, one slot per entry. cpInts holds the index
+         * of a Class or String, both indexes of a member ref or NameAndType
+         * packed as (first << 16 | second), the bits of an Integer or Float,
+         * and the buffer offset of a not yet decoded UTF8. cpLongs holds the
+         * bits of a Long or Double and cpStrings the decoded UTF8 entries.
+         */
+        private int cpInts[];
+
+        private long cpLongs[];
+
+        private String cpStrings[];
 
         private int access;
 
@@ -3924,18 +6560,45 @@ public class TestRuntimeWrapper {
 
         private byte tags[];
 
-        private Hashtable indexHashAscii = new Hashtable();
+        /**
+         * Open addressing UTF8 string to constant pool index table, built on
+         * the first call to findUtf8. Slots hold a cp index, 0 when empty.
+         */
+        private int utf8Index[];
+
+        /**
+         * StringValue results by constant pool index, filled as entries are
+         * first rendered and shared by the constant pool listing and the
+         * instruction comments.
+         */
+        private String rendered[];
+
+        /**
+         * BootstrapMethods entries, each the method handle index followed
+         * by the argument indexes; decoded on first use.
+         */
+        private int bootstrapMethods[][];
+
+        private static final String[] REF_KIND_NAMES = { null, "REF_getField", "REF_getStatic", "REF_putField",
+                "REF_putStatic", "REF_invokeVirtual", "REF_invokeStatic", "REF_invokeSpecial",
+                "REF_newInvokeSpecial", "REF_invokeInterface" };
 
         private String pkgPrefix = "";
 
         private int pkgPrefixLen = 0;
 
+        /**
+         * Whole class file, when read by the buffer engine.
+         */
+        private ByteBuffer buf;
+
+
         /**
          * Read classfile to disassemble.
          */
         public ClassData(InputStream infile) {
             try {
-                this.read(new DataInputStream(infile));
+                this.read(JavapEnvironment.toBuffer(infile));
             } catch (FileNotFoundException ee) {
                 error("cant read file");
             } catch (Error ee) {
@@ -3947,6 +6610,45 @@ public class TestRuntimeWrapper {
             }
         }
 
+        /**
+         * Read classfile to disassemble from a heap or memory-mapped buffer
+         * holding the whole class file.
+         */
+        public ClassData(ByteBuffer infile) {
+            try {
+                this.read(infile);
+            } catch (Error ee) {
+                ee.printStackTrace();
+                error("fatal error");
+            } catch (Exception ee) {
+                ee.printStackTrace();
+                error("fatal exception");
+            }
+        }
+
+        private ClassData() {
+        }
+
+        /**
+         * Parse a class file held in a buffer. Bad input is reported to the
+         * caller rather than printed.
+         *
+         * @throws IOException
+         *             if the bytes are not a valid class file
+         */
+        static ClassData parse(ByteBuffer infile) throws IOException {
+            final ClassData cls = new ClassData();
+            try {
+                cls.read(infile);
+            } catch (ClassFormatError e) {
+                throw new IOException("Invalid class file: " + e.getMessage(), e);
+            } catch (RuntimeException e) {
+                // Truncated input or a constant pool index out of range
+                throw new IOException("Invalid class file: " + e, e);
+            }
+            return cls;
+        }
+
         /**
          * Reads and stores class file information.
          */
@@ -4018,43 +6720,185 @@ public class TestRuntimeWrapper {
             in.close();
         } // end ClassData.read()
 
+        /**
+         * Reads and stores class file information from a buffer positioned at
+         * the start of the class file. UTF8 constants, code arrays and
+         * unknown attributes are kept as views into the buffer and decoded or
+         * copied only when asked for.
+         */
+        public void read(ByteBuffer infile) {
+            final ByteBuffer in = infile.slice();
+            in.order(ByteOrder.BIG_ENDIAN);
+            buf = in;
+
+            // Read the header
+            magic = in.getInt();
+            if (magic != JAVA_MAGIC) {
+                throw new ClassFormatError("wrong magic: " + toHex(magic) + ", expected " + toHex(JAVA_MAGIC));
+            }
+            minor_version = in.getShort();
+            major_version = in.getShort();
+
+            // Read the constant pool
+            readCP(in);
+            access = in.getShort() & 0xFFFF;
+            this_class = in.getShort() & 0xFFFF;
+            super_class = in.getShort() & 0xFFFF;
+
+            // Read interfaces.
+            interfaces_count = in.getShort() & 0xFFFF;
+            if (interfaces_count > 0) {
+                interfaces = new int[interfaces_count];
+            }
+            for (int i = 0; i < interfaces_count; i++) {
+                interfaces[i] = in.getShort();
+            }
+
+            // Read the fields
+            readFields(in);
+
+            // Read the methods
+            readMethods(in);
+
+            // Read the attributes
+            attributes_count = in.getShort() & 0xFFFF;
+            attrs = new AttrData[attributes_count];
+            for (int k = 0; k < attributes_count; k++) {
+                int name_cpx = in.getShort() & 0xFFFF;
+                if (getTag(name_cpx) == CONSTANT_UTF8 && getString(name_cpx).equals("SourceFile")) {
+                    if (in.getInt() != 2)
+                        throw new ClassFormatError("invalid attr length");
+                    source_cpx = in.getShort() & 0xFFFF;
+                    AttrData attr = new AttrData(this);
+                    attr.read(name_cpx);
+                    attrs[k] = attr;
+
+                } else if (getTag(name_cpx) == CONSTANT_UTF8 && getString(name_cpx).equals("InnerClasses")) {
+                    int length = in.getInt();
+                    int num = in.getShort() & 0xFFFF;
+                    if (2 + num * 8 != length)
+                        throw new ClassFormatError("invalid attr length");
+                    innerClasses = new InnerClassData[num];
+                    for (int j = 0; j < num; j++) {
+                        InnerClassData innerClass = new InnerClassData(this);
+                        innerClass.read(in);
+                        innerClasses[j] = innerClass;
+                    }
+                    AttrData attr = new AttrData(this);
+                    attr.read(name_cpx);
+                    attrs[k] = attr;
+                } else {
+                    AttrData attr = new AttrData(this);
+                    attr.read(name_cpx, in);
+                    attrs[k] = attr;
+                }
+            }
+        }
+
         /**
          * Reads and stores constant pool info.
          */
         void readCP(DataInputStream in) throws IOException {
             cpool_count = in.readUnsignedShort();
             tags = new byte[cpool_count];
-            cpool = new Object[cpool_count];
+            cpInts = new int[cpool_count];
+            cpLongs = new long[cpool_count];
+            cpStrings = new String[cpool_count];
             for (int i = 1; i < cpool_count; i++) {
                 byte tag = in.readByte();
 
                 switch (tags[i] = tag) {
                 case CONSTANT_UTF8:
-                    String str = in.readUTF();
-                    indexHashAscii.put(cpool[i] = str, new Integer(i));
+                    cpStrings[i] = SHARED_UTF8.intern(in.readUTF());
                     break;
                 case CONSTANT_INTEGER:
-                    cpool[i] = new Integer(in.readInt());
-                    break;
                 case CONSTANT_FLOAT:
-                    cpool[i] = new Float(in.readFloat());
+                    cpInts[i] = in.readInt();
                     break;
                 case CONSTANT_LONG:
-                    cpool[i++] = new Long(in.readLong());
+                case CONSTANT_DOUBLE:
+                    cpLongs[i++] = in.readLong();
+                    break;
+                case CONSTANT_CLASS:
+                case CONSTANT_STRING:
+                case CONSTANT_METHODTYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    cpInts[i] = in.readUnsignedShort();
+                    break;
+
+                case CONSTANT_FIELD:
+                case CONSTANT_METHOD:
+                case CONSTANT_INTERFACEMETHOD:
+                case CONSTANT_NAMEANDTYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKEDYNAMIC:
+                    cpInts[i] = in.readInt();
+                    break;
+
+                case CONSTANT_METHODHANDLE:
+                    cpInts[i] = in.readUnsignedByte() << 16;
+                    cpInts[i] |= in.readUnsignedShort();
+                    break;
+
+                case 0:
+                default:
+                    throw new ClassFormatError("invalid constant type: " + (int) tags[i]);
+                }
+            }
+        }
+
+        /**
+         * Reads the constant pool of a class file buffer into the primitive
+         * slots. UTF8 entries are only located here; see utf8.
+         */
+        void readCP(ByteBuffer in) {
+            cpool_count = in.getShort() & 0xFFFF;
+            tags = new byte[cpool_count];
+            cpInts = new int[cpool_count];
+            cpLongs = new long[cpool_count];
+            cpStrings = new String[cpool_count];
+            int pos = in.position();
+            for (int i = 1; i < cpool_count; i++) {
+                byte tag = in.get(pos++);
+
+                switch (tags[i] = tag) {
+                case CONSTANT_UTF8:
+                    cpInts[i] = pos;
+                    pos += 2 + (in.getShort(pos) & 0xFFFF);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                    cpInts[i] = in.getInt(pos);
+                    pos += 4;
                     break;
+                case CONSTANT_LONG:
                 case CONSTANT_DOUBLE:
-                    cpool[i++] = new Double(in.readDouble());
+                    cpLongs[i++] = in.getLong(pos);
+                    pos += 8;
                     break;
                 case CONSTANT_CLASS:
                 case CONSTANT_STRING:
-                    cpool[i] = new CPX(in.readUnsignedShort());
+                case CONSTANT_METHODTYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    cpInts[i] = in.getShort(pos) & 0xFFFF;
+                    pos += 2;
                     break;
 
                 case CONSTANT_FIELD:
                 case CONSTANT_METHOD:
                 case CONSTANT_INTERFACEMETHOD:
                 case CONSTANT_NAMEANDTYPE:
-                    cpool[i] = new CPX2(in.readUnsignedShort(), in.readUnsignedShort());
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKEDYNAMIC:
+                    cpInts[i] = in.getInt(pos);
+                    pos += 4;
+                    break;
+
+                case CONSTANT_METHODHANDLE:
+                    cpInts[i] = ((in.get(pos) & 0xFF) << 16) | (in.getShort(pos + 1) & 0xFFFF);
+                    pos += 3;
                     break;
 
                 case 0:
@@ -4062,6 +6906,126 @@ public class TestRuntimeWrapper {
                     throw new ClassFormatError("invalid constant type: " + (int) tags[i]);
                 }
             }
+            in.position(pos);
+        }
+
+        /**
+         * Returns the UTF8 entry at that index, decoding it from the class
+         * file buffer on first access. Like a cast of the entry, returns
+         * null for an empty slot and fails for any other kind of entry.
+         */
+        private String utf8(int n) {
+            String x = cpStrings[n];
+            if (x == null) {
+                switch (tags[n]) {
+                case CONSTANT_UTF8:
+                    x = cpStrings[n] = SHARED_UTF8.intern(readUTF(buf, cpInts[n]));
+                    break;
+                case 0:
+                    break;
+                default:
+                    throw new ClassCastException("not a UTF8 constant: " + n);
+                }
+            }
+            return x;
+        }
+
+        /**
+         * Returns the constant pool index of the UTF8 entry equal to str, or
+         * -1 if there is none. The lookup table is only built when this is
+         * first called.
+         */
+        public int findUtf8(String str) {
+            int[] table = utf8Index;
+            if (table == null) {
+                table = utf8Index = buildUtf8Index();
+            }
+            final int mask = table.length - 1;
+            for (int slot = mix(str.hashCode()) & mask;; slot = (slot + 1) & mask) {
+                final int cpx = table[slot];
+                if (cpx == 0) {
+                    return -1;
+                }
+                if (utf8(cpx).equals(str)) {
+                    return cpx;
+                }
+            }
+        }
+
+        private int[] buildUtf8Index() {
+            int count = 0;
+            for (int i = 1; i < cpool_count; i++) {
+                if (tags[i] == CONSTANT_UTF8)
+                    count++;
+            }
+            // power of two, at most half full
+            int size = 2;
+            while (size < count * 2) {
+                size <<= 1;
+            }
+            final int[] table = new int[size];
+            final int mask = size - 1;
+            for (int i = 1; i < cpool_count; i++) {
+                if (tags[i] != CONSTANT_UTF8)
+                    continue;
+                final String str = utf8(i);
+                int slot = mix(str.hashCode()) & mask;
+                while (table[slot] != 0) {
+                    if (utf8(table[slot]).equals(str)) {
+                        break; // keep the first of duplicate entries
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                if (table[slot] == 0) {
+                    table[slot] = i;
+                }
+            }
+            return table;
+        }
+
+        private static int mix(int h) {
+            h ^= (h >>> 16);
+            h *= 0x85EBCA6B;
+            return h ^ (h >>> 13);
+        }
+
+        /**
+         * Decodes the modified UTF-8 string whose length field is at offset,
+         * the same way DataInputStream.readUTF does.
+         */
+        static String readUTF(ByteBuffer in, int offset) {
+            int utflen = in.getShort(offset) & 0xFFFF;
+            char[] chars = new char[utflen];
+            int count = 0;
+            int p = offset + 2;
+            int end = p + utflen;
+            while (p < end) {
+                int c = in.get(p) & 0xFF;
+                if (c < 0x80) {
+                    chars[count++] = (char) c;
+                    p++;
+                } else if ((c & 0xE0) == 0xC0) {
+                    if (p + 2 > end)
+                        throw new ClassFormatError("malformed UTF8 constant at " + offset);
+                    int c2 = in.get(p + 1);
+                    if ((c2 & 0xC0) != 0x80)
+                        throw new ClassFormatError("malformed UTF8 constant at " + offset);
+                    chars[count++] = (char) (((c & 0x1F) << 6) | (c2 & 0x3F));
+                    p += 2;
+                } else if ((c & 0xF0) == 0xE0) {
+                    if (p + 3 > end)
+                        throw new ClassFormatError("malformed UTF8 constant at " + offset);
+                    int c2 = in.get(p + 1);
+                    int c3 = in.get(p + 2);
+                    if (((c2 & 0xC0) != 0x80) || ((c3 & 0xC0) != 0x80))
+                        throw new ClassFormatError("malformed UTF8 constant at " + offset);
+                    chars[count++] = (char) (((c & 0x0F) << 12) | ((c2 & 0x3F) << 6) | (c3 & 0x3F));
+                    p += 3;
+                } else {
+                    throw new ClassFormatError("malformed UTF8 constant at " + offset);
+                }
+            }
+            return new String(chars, 0, count);
         }
 
         /**
@@ -4090,11 +7054,31 @@ public class TestRuntimeWrapper {
             }
         }
 
+        protected void readFields(ByteBuffer in) {
+            int fields_count = in.getShort() & 0xFFFF;
+            fields = new FieldData[fields_count];
+            for (int k = 0; k < fields_count; k++) {
+                FieldData field = new FieldData(this);
+                field.read(in);
+                fields[k] = field;
+            }
+        }
+
+        protected void readMethods(ByteBuffer in) {
+            int methods_count = in.getShort() & 0xFFFF;
+            methods = new MethodData[methods_count];
+            for (int k = 0; k < methods_count; k++) {
+                MethodData method = new MethodData(this);
+                method.read(in);
+                methods[k] = method;
+            }
+        }
+
         /**
          * get a string
          */
         public String getString(int n) {
-            return (n == 0) ? null : (String) cpool[n];
+            return (n == 0) ? null : utf8(n);
         }
 
         /**
@@ -4154,7 +7138,7 @@ public class TestRuntimeWrapper {
                 if (tags[this_class] != CONSTANT_CLASS) {
                     return res; // "<CP["+cpx+"] is not a Class> ";
                 }
-                tcpx = ((CPX) cpool[this_class]).cpx;
+                tcpx = cpInts[this_class];
             } catch (ArrayIndexOutOfBoundsException e) {
                 return res; // "#"+cpx+"// invalid constant pool index";
             } catch (Throwable e) {
@@ -4162,7 +7146,7 @@ public class TestRuntimeWrapper {
             }
 
             try {
-                return (String) (cpool[tcpx]);
+                return utf8(tcpx);
             } catch (ArrayIndexOutOfBoundsException e) {
                 return res; // "class #"+scpx+"// invalid constant pool index";
             } catch (ClassCastException e) {
@@ -4186,7 +7170,7 @@ public class TestRuntimeWrapper {
                 if (tags[cpx] != CONSTANT_CLASS) {
                     return res; // "<CP["+cpx+"] is not a Class> ";
                 }
-                scpx = ((CPX) cpool[cpx]).cpx;
+                scpx = cpInts[cpx];
             } catch (ArrayIndexOutOfBoundsException e) {
                 return res; // "#"+cpx+"// invalid constant pool index";
             } catch (Throwable e) {
@@ -4194,7 +7178,7 @@ public class TestRuntimeWrapper {
             }
             res = "#" + scpx;
             try {
-                return (String) (cpool[scpx]);
+                return utf8(scpx);
             } catch (ArrayIndexOutOfBoundsException e) {
                 return res; // "class #"+scpx+"// invalid constant pool index";
             } catch (ClassCastException e) {
@@ -4259,6 +7243,44 @@ public class TestRuntimeWrapper {
             return attrs;
         }
 
+        /**
+         * Returns the name of a method handle kind.
+         */
+        public static String refKindName(int kind) {
+            if (kind > 0 && kind < REF_KIND_NAMES.length)
+                return REF_KIND_NAMES[kind];
+            return "BOGUS_REF_KIND:" + kind;
+        }
+
+        /**
+         * Returns the BootstrapMethods table, each entry the method handle
+         * index followed by the static argument indexes, or an empty array
+         * if the class has none.
+         */
+        public int[][] getBootstrapMethods() {
+            int[][] res = bootstrapMethods;
+            if (res == null) {
+                res = new int[0][];
+                for (int k = 0; k < attrs.length; k++) {
+                    if (attrs[k] != null && attrs[k].getAttrName().equals("BootstrapMethods")) {
+                        final ByteBuffer data = attrs[k].getDataBuffer();
+                        res = new int[data.getShort() & 0xFFFF][];
+                        for (int i = 0; i < res.length; i++) {
+                            final int ref = data.getShort() & 0xFFFF;
+                            res[i] = new int[1 + (data.getShort() & 0xFFFF)];
+                            res[i][0] = ref;
+                            for (int j = 1; j < res[i].length; j++) {
+                                res[i][j] = data.getShort() & 0xFFFF;
+                            }
+                        }
+                        break;
+                    }
+                }
+                bootstrapMethods = res;
+            }
+            return res;
+        }
+
         /**
          * Returns true if superbit is set.
          */
@@ -4281,7 +7303,7 @@ public class TestRuntimeWrapper {
                 if (tags[super_class] != CONSTANT_CLASS) {
                     return res; // "<CP["+cpx+"] is not a Class> ";
                 }
-                scpx = ((CPX) cpool[super_class]).cpx;
+                scpx = cpInts[super_class];
             } catch (ArrayIndexOutOfBoundsException e) {
                 return res; // "#"+cpx+"// invalid constant pool index";
             } catch (Throwable e) {
@@ -4289,7 +7311,7 @@ public class TestRuntimeWrapper {
             }
 
             try {
-                return (String) (cpool[scpx]);
+                return utf8(scpx);
             } catch (ArrayIndexOutOfBoundsException e) {
                 return res; // "class #"+scpx+"// invalid constant pool index";
             } catch (ClassCastException e) {
@@ -4306,8 +7328,8 @@ public class TestRuntimeWrapper {
             String interfacenames[] = new String[interfaces.length];
             int interfacecpx = -1;
             for (int i = 0; i < interfaces.length; i++) {
-                interfacecpx = ((CPX) cpool[interfaces[i]]).cpx;
-                interfacenames[i] = (String) (cpool[interfacecpx]);
+                interfacecpx = cpInts[interfaces[i]];
+                interfacenames[i] = utf8(interfacecpx);
             }
             return interfacenames;
         }
@@ -4317,7 +7339,7 @@ public class TestRuntimeWrapper {
          */
         public String getStringValue(int cpoolx) {
             try {
-                return ((String) cpool[cpoolx]);
+                return utf8(cpoolx);
             } catch (ArrayIndexOutOfBoundsException e) {
                 return "//invalid constant pool index:" + cpoolx;
             } catch (ClassCastException e) {
@@ -4326,28 +7348,75 @@ public class TestRuntimeWrapper {
         }
 
         /**
-         * Returns list of field info.
+         * Returns list of field info.
+         */
+        public FieldData[] getFields() {
+            return fields;
+        }
+
+        /**
+         * Returns list of method info.
+         */
+        public MethodData[] getMethods() {
+            return methods;
+        }
+
+        /**
+         * Returns constant pool entry at that index.
+         */
+        public CPX2 getCpoolEntry(int cpx) {
+            return new CPX2(getCpoolIndex1(cpx), getCpoolIndex2(cpx));
+        }
+
+        public Object getCpoolEntryobj(int cpx) {
+            switch (tags[cpx]) {
+            case CONSTANT_UTF8:
+                return utf8(cpx);
+            case CONSTANT_INTEGER:
+                return new Integer(cpInts[cpx]);
+            case CONSTANT_FLOAT:
+                return new Float(Float.intBitsToFloat(cpInts[cpx]));
+            case CONSTANT_LONG:
+                return new Long(cpLongs[cpx]);
+            case CONSTANT_DOUBLE:
+                return new Double(Double.longBitsToDouble(cpLongs[cpx]));
+            case CONSTANT_CLASS:
+            case CONSTANT_STRING:
+                return new CPX(cpInts[cpx]);
+            case CONSTANT_FIELD:
+            case CONSTANT_METHOD:
+            case CONSTANT_INTERFACEMETHOD:
+            case CONSTANT_NAMEANDTYPE:
+                return getCpoolEntry(cpx);
+            default:
+                return null;
+            }
+        }
+
+        /**
+         * Returns the index held by a Class, String, MethodType, Module or
+         * Package entry.
          */
-        public FieldData[] getFields() {
-            return fields;
+        public int getCpoolIndex(int cpx) {
+            return cpInts[cpx];
         }
 
         /**
-         * Returns list of method info.
+         * Returns the class or name index of a member ref or NameAndType,
+         * the bootstrap method index of a Dynamic or InvokeDynamic, or the
+         * kind of a MethodHandle.
          */
-        public MethodData[] getMethods() {
-            return methods;
+        public int getCpoolIndex1(int cpx) {
+            return cpInts[cpx] >>> 16;
         }
 
         /**
-         * Returns constant pool entry at that index.
+         * Returns the NameAndType or descriptor index of a member ref,
+         * NameAndType, Dynamic or InvokeDynamic, or the reference index of a
+         * MethodHandle.
          */
-        public CPX2 getCpoolEntry(int cpx) {
-            return ((CPX2) (cpool[cpx]));
-        }
-
-        public Object getCpoolEntryobj(int cpx) {
-            return (cpool[cpx]);
+        public int getCpoolIndex2(int cpx) {
+            return cpInts[cpx] & 0xFFFF;
         }
 
         /**
@@ -4371,21 +7440,30 @@ public class TestRuntimeWrapper {
             if (cpx == 0)
                 return "#0";
             int tag;
-            Object x;
-            String suffix = "";
             try {
                 tag = tags[cpx];
-                x = cpool[cpx];
             } catch (IndexOutOfBoundsException e) {
                 return "<Incorrect CP index:" + cpx + ">";
             }
-
-            if (x == null)
+            if (tag == 0)
                 return "<NULL>";
+            // Racing threads can only store equal strings, so no lock.
+            String[] cache = rendered;
+            if (cache == null) {
+                cache = rendered = new String[tags.length];
+            }
+            String res = cache[cpx];
+            if (res == null) {
+                res = cache[cpx] = renderValue(cpx, tag);
+            }
+            return res;
+        }
+
+        private String renderValue(int cpx, int tag) {
             switch (tag) {
             case CONSTANT_UTF8: {
                 StringBuffer sb = new StringBuffer();
-                String s = (String) x;
+                String s = utf8(cpx);
                 for (int k = 0; k < s.length(); k++) {
                     char c = s.charAt(k);
                     switch (c) {
@@ -4407,37 +7485,36 @@ public class TestRuntimeWrapper {
                 }
                 return sb.toString();
             }
-            case CONSTANT_DOUBLE: {
-                Double d = (Double) x;
-                String sd = d.toString();
-                return sd + "d";
-            }
-            case CONSTANT_FLOAT: {
-                Float f = (Float) x;
-                String sf = (f).toString();
-                return sf + "f";
-            }
-            case CONSTANT_LONG: {
-                Long ln = (Long) x;
-                return ln.toString() + 'l';
-            }
-            case CONSTANT_INTEGER: {
-                Integer in = (Integer) x;
-                return in.toString();
-            }
+            case CONSTANT_DOUBLE:
+                return Double.toString(Double.longBitsToDouble(cpLongs[cpx])) + "d";
+            case CONSTANT_FLOAT:
+                return Float.toString(Float.intBitsToFloat(cpInts[cpx])) + "f";
+            case CONSTANT_LONG:
+                return Long.toString(cpLongs[cpx]) + 'l';
+            case CONSTANT_INTEGER:
+                return Integer.toString(cpInts[cpx]);
             case CONSTANT_CLASS:
                 return javaName(getClassName(cpx));
             case CONSTANT_STRING:
-                return StringValue(((CPX) x).cpx);
+                return StringValue(cpInts[cpx]);
             case CONSTANT_FIELD:
             case CONSTANT_METHOD:
             case CONSTANT_INTERFACEMETHOD:
                 // return
-                // getShortClassName(((CPX2)x).cpx1)+"."+StringValue(((CPX2)x).cpx2);
-                return javaName(getClassName(((CPX2) x).cpx1)) + "." + StringValue(((CPX2) x).cpx2);
+                // getShortClassName(getCpoolIndex1(cpx))+"."+StringValue(getCpoolIndex2(cpx));
+                return javaName(getClassName(getCpoolIndex1(cpx))) + "." + StringValue(getCpoolIndex2(cpx));
 
             case CONSTANT_NAMEANDTYPE:
-                return getName(((CPX2) x).cpx1) + ":" + StringValue(((CPX2) x).cpx2);
+                return getName(getCpoolIndex1(cpx)) + ":" + StringValue(getCpoolIndex2(cpx));
+            case CONSTANT_METHODHANDLE:
+                return refKindName(getCpoolIndex1(cpx)) + " " + StringValue(getCpoolIndex2(cpx));
+            case CONSTANT_METHODTYPE:
+            case CONSTANT_MODULE:
+            case CONSTANT_PACKAGE:
+                return StringValue(cpInts[cpx]);
+            case CONSTANT_DYNAMIC:
+            case CONSTANT_INVOKEDYNAMIC:
+                return "#" + getCpoolIndex1(cpx) + ":" + StringValue(getCpoolIndex2(cpx));
             default:
                 return "UnknownTag"; // TBD
             }
@@ -4474,7 +7551,7 @@ public class TestRuntimeWrapper {
         public String getName(int cpx) {
             String res;
             try {
-                return javaName((String) cpool[cpx]); // .replace('/','.');
+                return javaName(utf8(cpx)); // .replace('/','.');
             } catch (ArrayIndexOutOfBoundsException e) {
                 return "<invalid constant pool index:" + cpx + ">";
             } catch (ClassCastException e) {
@@ -4568,6 +7645,12 @@ public class TestRuntimeWrapper {
 
         byte data[];
 
+        /**
+         * View of the attribute payload in the class file buffer, set instead
+         * of data when the attribute was read from a ByteBuffer.
+         */
+        ByteBuffer dataView;
+
         public AttrData(ClassData cls) {
             this.cls = cls;
         }
@@ -4583,6 +7666,19 @@ public class TestRuntimeWrapper {
             in.readFully(data);
         }
 
+        /**
+         * Reads unknown attribute from a class file buffer, keeping the
+         * payload as a view into the buffer.
+         */
+        public void read(int name_cpx, ByteBuffer in) {
+
+            this.name_cpx = name_cpx;
+            datalen = in.getInt();
+            dataView = in.slice();
+            dataView.limit(datalen);
+            in.position(in.position() + datalen);
+        }
+
         /**
          * Reads just the name of known attribute.
          */
@@ -4601,8 +7697,24 @@ public class TestRuntimeWrapper {
          * Returns attribute data.
          */
         public byte[] getData() {
+            if (data == null && dataView != null) {
+                byte[] b = new byte[datalen];
+                dataView.duplicate().get(b);
+                data = b;
+            }
             return data;
         }
+
+        /**
+         * Returns attribute data as a buffer, without copying when the
+         * attribute was read from a class file buffer.
+         */
+        public ByteBuffer getDataBuffer() {
+            if (dataView != null) {
+                return dataView.duplicate();
+            }
+            return ByteBuffer.wrap(data);
+        }
     } // End of the Class //
 
     /**
@@ -4981,128 +8093,919 @@ public class TestRuntimeWrapper {
 
         public final int CONST = 123;
 
-        public final int STATIC = 124;
+        public final int STATIC = 124;
+
+        public final int TRANSIENT = 125;
+
+        public final int SYNCHRONIZED = 126;
+
+        public final int NATIVE = 127;
+
+        public final int FINAL = 128;
+
+        public final int VOLATILE = 129;
+
+        public final int ABSTRACT = 130;
+
+        public final int STRICT = 165;
+
+        /*
+         * Punctuation
+         */
+        public final int SEMICOLON = 135;
+
+        public final int COLON = 136;
+
+        public final int QUESTIONMARK = 137;
+
+        public final int LBRACE = 138;
+
+        public final int RBRACE = 139;
+
+        public final int LPAREN = 140;
+
+        public final int RPAREN = 141;
+
+        public final int LSQBRACKET = 142;
+
+        public final int RSQBRACKET = 143;
+
+        public final int THROWS = 144;
+
+        /*
+         * Special tokens
+         */
+        public final int ERROR = 145; // an error
+
+        public final int COMMENT = 146; // not used anymore.
+
+        public final int TYPE = 147;
+
+        public final int LENGTH = 148;
+
+        public final int INLINERETURN = 149;
+
+        public final int INLINEMETHOD = 150;
+
+        public final int INLINENEWINSTANCE = 151;
+
+        /*
+         * Added for jasm
+         */
+        public final int METHODREF = 152;
+
+        public final int FIELDREF = 153;
+
+        public final int STACK = 154;
+
+        public final int LOCAL = 155;
+
+        public final int CPINDEX = 156;
+
+        public final int CPNAME = 157;
+
+        public final int SIGN = 158;
+
+        public final int BITS = 159;
+
+        public final int INF = 160;
+
+        public final int NAN = 161;
+
+        public final int INNERCLASS = 162;
+
+        public final int OF = 163;
+
+        public final int SYNTHETIC = 164;
+
+        // last used=165;
+
+        /*
+         * Operator precedence
+         */
+        public static final int opPrecedence[] = { 10, 11, 11, 11, 11, 11, 11, 11, 11, 11, 11, 11, 11, 12, 13, 14, 15,
+                16, 17, 18, 18, 19, 19, 19, 19, 19, 20, 20, 20, 21, 21, 22, 22, 22, 23, 24, 24, 24, 24, 24, 24, 25, 25,
+                26, 26, 26, 26, 26, 26 };
+
+        /*
+         * Operator names
+         */
+        public static final String opNames[] = { ",", "=", "*=", "/=", "%=", "+=", "-=", "<<=", ">>=", "<<<=", "&=",
+                "|=", "^=", "?:", "||", "&&", "|", "^", "&", "!=", "==", ">=", ">", "<=", "<", "instanceof", "<<",
+                ">>", "<<<", "+", "-", "/", "%", "*", "cast", "+", "-", "!", "~", "++", "--", "new", "new", "new",
+                "++", "--", "field", "method", "[]", "new", "++", "--", null, null, null,
+
+                "convert", "expr", "array", "goto", null,
+
+                "Identifier", "Boolean", "Byte", "Char", "Short", "Integer", "Long", "Float", "Double", "String",
+
+                "byte", "char", "short", "int", "long", "float", "double", "void", "boolean", null,
+
+                "true", "false", "this", "super", "null", null, null, null, null, null,
+
+                "if", "else", "for", "while", "do", "switch", "case", "default", "break", "continue", "return", "try",
+                "catch", "finally", "throw", "stat", "expression", "declaration", "declaration", null,
+
+                "import", "class", "extends", "implements", "interface", "package", null, null, null, null,
+
+                "private", "public", "protected", "const", "static", "transient", "synchronized", "native", "final",
+                "volatile", "abstract", null, null, null, null,
+
+                ";", ":", "?", "{", "}", "(", ")", "[", "]", "throws", "error", "comment", "type", "length",
+                "inline-return", "inline-method", "inline-new", "method", "field", "stack", "locals", "CPINDEX",
+                "CPName", "SIGN", "bits", "INF", "NaN", "InnerClass", "of", "synthetic" };
+
+    }
+
+    /**
+     * In-memory cache of rendered disassemblies, keyed by the SHA-1 of the
+     * class bytes plus the options that shape the output. The total size of
+     * the cached text is bounded; the least recently used entries are
+     * evicted first.
+     */
+    public static class DisassemblyCache {
+
+        /** Rough per-entry overhead of the map entry, key and value objects. */
+        private static final int ENTRY_OVERHEAD = 96;
+
+        private final LinkedHashMap<String, String> entries = new LinkedHashMap<String, String>(64, 0.75f, true);
+
+        private final long maxBytes;
+
+        private long currentBytes = 0;
+
+        public DisassemblyCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * Return the hex SHA-1 digest of the remaining bytes of buf, without
+         * moving its position.
+         */
+        public static String sha1(ByteBuffer buf) {
+            final MessageDigest md;
+            try {
+                md = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-1 not available");
+            }
+            md.update(buf.duplicate());
+            final byte[] digest = md.digest();
+            final char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[2 * i] = Character.forDigit((digest[i] >> 4) & 0xF, 16);
+                hex[2 * i + 1] = Character.forDigit(digest[i] & 0xF, 16);
+            }
+            return new String(hex);
+        }
+
+        static long sizeOf(String key, String value) {
+            return ENTRY_OVERHEAD + 2L * (key.length() + value.length());
+        }
+
+        /**
+         * Return the largest result, in chars, worth caching. Bigger results
+         * would push out too many other entries.
+         */
+        public int getMaxEntryChars() {
+            return (int) Math.min(Integer.MAX_VALUE, maxBytes / 16);
+        }
+
+        public synchronized String get(String key) {
+            return entries.get(key);
+        }
+
+        public synchronized void put(String key, String value) {
+            final long size = sizeOf(key, value);
+            if (size > maxBytes) {
+                return;
+            }
+            final String old = entries.put(key, value);
+            if (old != null) {
+                currentBytes -= sizeOf(key, old);
+            }
+            currentBytes += size;
+            final Iterator<Map.Entry<String, String>> it = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && it.hasNext()) {
+                final Map.Entry<String, String> eldest = it.next();
+                currentBytes -= sizeOf(eldest.getKey(), eldest.getValue());
+                it.remove();
+            }
+        }
+
+        public synchronized int size() {
+            return entries.size();
+        }
+
+        public synchronized long getCurrentBytes() {
+            return currentBytes;
+        }
+
+        public synchronized void clear() {
+            entries.clear();
+            currentBytes = 0;
+        }
+
+        /**
+         * Writer that passes everything to its target and keeps a copy
+         * until the copy grows beyond a limit.
+         */
+        public static class CapturingWriter extends Writer {
+
+            private final Writer target;
+
+            private final int limit;
+
+            private StringBuilder copy = new StringBuilder(1024);
+
+            public CapturingWriter(Writer target, int limit) {
+                this.target = target;
+                this.limit = limit;
+            }
+
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                target.write(cbuf, off, len);
+                if (copy != null) {
+                    if (copy.length() + len > limit) {
+                        copy = null;
+                    } else {
+                        copy.append(cbuf, off, len);
+                    }
+                }
+            }
+
+            public void write(String str, int off, int len) throws IOException {
+                target.write(str, off, len);
+                if (copy != null) {
+                    if (copy.length() + len > limit) {
+                        copy = null;
+                    } else {
+                        copy.append(str, off, off + len);
+                    }
+                }
+            }
+
+            /**
+             * Return everything written, or null if it exceeded the limit.
+             */
+            public String getCopy() {
+                return (copy == null) ? null : copy.toString();
+            }
+
+            public void flush() throws IOException {
+                target.flush();
+            }
+
+            public void close() throws IOException {
+                target.close();
+            }
+        }
+    }
+
+    /**
+     * On-disk companion of DisassemblyCache that survives restarts. Values
+     * are appended as UTF-8 to a segment file, which grows in MAP_STEP
+     * steps so the read-only map of it is replaced once per step rather
+     * than once per value. An index file of (key, offset, length) records
+     * is appended alongside; it is memory-mapped only while the store is
+     * opened, to rebuild the in-memory key table that lookups use. Reads
+     * return slices of the mapped segment without copying. When
+     * the segment outgrows its budget the newest entries are copied to the
+     * segment and index of a new generation, which a small pointer file,
+     * replaced by one atomic rename, then names as current. The directory
+     * is locked while the store is open.
+     */
+    public static class DiskDisassemblyStore {
+
+        public static final String LOCK_NAME = "disassembly.lock";
+
+        /** Holds the current generation number. */
+        public static final String CURRENT_NAME = "disassembly.cur";
+
+        private static final String PREFIX = "disassembly.";
+
+        private static final Charset UTF8 = Charset.forName("UTF-8");
+
+        /** The segment file is extended by this much at a time. */
+        static final long MAP_STEP = 1024 * 1024;
+
+        private final File dir;
+
+        private final long maxBytes;
+
+        private RandomAccessFile lockFile;
+
+        private FileLock lock;
+
+        private long generation;
+
+        private RandomAccessFile segmentFile;
+
+        private RandomAccessFile indexFile;
+
+        private FileChannel segment;
+
+        private FileChannel index;
+
+        /** Read-only map of the segment, remapped when it has grown. */
+        private MappedByteBuffer mapped;
+
+        /** End of the data in the segment; the file beyond it is unused. */
+        private long end;
+
+        /** Key to {offset, length}, oldest write first. */
+        private LinkedHashMap<String, long[]> locations = new LinkedHashMap<String, long[]>();
+
+        private DiskDisassemblyStore(File dir, long maxBytes) {
+            this.dir = dir;
+            this.maxBytes = Math.min(maxBytes, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Open or create the store in dir. The segment is compacted once it
+         * exceeds maxBytes (at most 2GB). Fails if another process has the
+         * store open.
+         */
+        public static DiskDisassemblyStore open(File dir, long maxBytes) throws IOException {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create cache directory: " + dir);
+            }
+            final DiskDisassemblyStore store = new DiskDisassemblyStore(dir, maxBytes);
+            store.lock();
+            try {
+                store.generation = store.readCurrent();
+                store.openFiles();
+                store.loadIndex();
+            } catch (IOException e) {
+                store.close();
+                throw e;
+            }
+            store.removeStale();
+            return store;
+        }
+
+        private void lock() throws IOException {
+            lockFile = new RandomAccessFile(new File(dir, LOCK_NAME), "rw");
+            try {
+                lock = lockFile.getChannel().tryLock();
+            } catch (OverlappingFileLockException e) {
+                // Held by another store in this JVM
+                lock = null;
+            }
+            if (lock == null) {
+                lockFile.close();
+                lockFile = null;
+                throw new IOException("Cache directory in use: " + dir);
+            }
+        }
+
+        private File segmentFile(long gen) {
+            return new File(dir, PREFIX + gen + ".seg");
+        }
 
-        public final int TRANSIENT = 125;
+        private File indexFile(long gen) {
+            return new File(dir, PREFIX + gen + ".idx");
+        }
 
-        public final int SYNCHRONIZED = 126;
+        /**
+         * Return the generation named by the pointer file, 0 if there is
+         * none yet.
+         */
+        private long readCurrent() throws IOException {
+            final File current = new File(dir, CURRENT_NAME);
+            if (!current.isFile() || current.length() != 8) {
+                return 0;
+            }
+            final RandomAccessFile in = new RandomAccessFile(current, "r");
+            try {
+                return in.readLong();
+            } finally {
+                in.close();
+            }
+        }
 
-        public final int NATIVE = 127;
+        /**
+         * Point at generation gen: the new pointer is written and synced
+         * under a temporary name, then renamed over the old one.
+         */
+        private void writeCurrent(long gen) throws IOException {
+            final File tmp = new File(dir, CURRENT_NAME + ".tmp");
+            final RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+            try {
+                out.setLength(0);
+                out.writeLong(gen);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), new File(dir, CURRENT_NAME).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
 
-        public final int FINAL = 128;
+        /**
+         * Delete files of other generations, left behind by a compaction
+         * that was interrupted or could not delete them while mapped.
+         */
+        private void removeStale() {
+            final File[] files = dir.listFiles();
+            if (files == null) {
+                return;
+            }
+            final String keepSegment = segmentFile(generation).getName();
+            final String keepIndex = indexFile(generation).getName();
+            for (int i = 0; i < files.length; i++) {
+                final String name = files[i].getName();
+                if (name.startsWith(PREFIX) && (name.endsWith(".seg") || name.endsWith(".idx"))
+                        && !name.equals(keepSegment) && !name.equals(keepIndex)) {
+                    files[i].delete();
+                }
+            }
+        }
 
-        public final int VOLATILE = 129;
+        private void openFiles() throws IOException {
+            segmentFile = new RandomAccessFile(segmentFile(generation), "rw");
+            indexFile = new RandomAccessFile(indexFile(generation), "rw");
+            segment = segmentFile.getChannel();
+            index = indexFile.getChannel();
+            mapped = null;
+        }
 
-        public final int ABSTRACT = 130;
+        /**
+         * Map the index and rebuild the key table. Records pointing past the
+         * end of the segment, and a partly written last record, are dropped.
+         */
+        private void loadIndex() throws IOException {
+            final long size = index.size();
+            if (size == 0) {
+                return;
+            }
+            final long segmentSize = segment.size();
+            final MappedByteBuffer idx = index.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int good = 0;
+            while (idx.remaining() >= 2) {
+                final int keyLen = idx.getShort() & 0xFFFF;
+                if (idx.remaining() < keyLen + 12) {
+                    break;
+                }
+                final ByteBuffer keyBytes = idx.slice();
+                keyBytes.limit(keyLen);
+                idx.position(idx.position() + keyLen);
+                final long offset = idx.getLong();
+                final int length = idx.getInt();
+                good = idx.position();
+                if (offset + length <= segmentSize) {
+                    final String key = UTF8.decode(keyBytes).toString();
+                    locations.remove(key);
+                    locations.put(key, new long[] { offset, length });
+                    end = Math.max(end, offset + length);
+                }
+            }
+            if (good < size) {
+                index.truncate(good);
+            }
+        }
 
-        public final int STRICT = 165;
+        /**
+         * Return a read-only view of the stored value, or null.
+         */
+        public synchronized ByteBuffer getBuffer(String key) throws IOException {
+            final long[] loc = locations.get(key);
+            if (loc == null) {
+                return null;
+            }
+            final long valueEnd = loc[0] + loc[1];
+            if (mapped == null || valueEnd > mapped.capacity()) {
+                mapped = segment.map(FileChannel.MapMode.READ_ONLY, 0, segment.size());
+            }
+            final ByteBuffer view = mapped.duplicate();
+            view.limit((int) valueEnd);
+            view.position((int) loc[0]);
+            return view.slice();
+        }
 
-        /*
-         * Punctuation
+        /**
+         * Return the stored value, or null.
          */
-        public final int SEMICOLON = 135;
+        public String get(String key) throws IOException {
+            final ByteBuffer buf = getBuffer(key);
+            return (buf == null) ? null : UTF8.decode(buf).toString();
+        }
 
-        public final int COLON = 136;
+        public synchronized void put(String key, String value) throws IOException {
+            final ByteBuffer data = UTF8.encode(value);
+            final long offset = end;
+            final int length = data.remaining();
+            if (length > maxBytes / 4) {
+                return;
+            }
+            if (offset + length > segment.size()) {
+                segmentFile.setLength((offset + length + MAP_STEP - 1) / MAP_STEP * MAP_STEP);
+            }
+            writeFully(segment, data, offset);
+            writeIndexRecord(index, key, offset, length);
+            end = offset + length;
+            locations.remove(key);
+            locations.put(key, new long[] { offset, length });
+            if (end > maxBytes) {
+                compact();
+            }
+        }
 
-        public final int QUESTIONMARK = 137;
+        private static void writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+        }
 
-        public final int LBRACE = 138;
+        private static void writeIndexRecord(FileChannel channel, String key, long offset, int length)
+                throws IOException {
+            final ByteBuffer keyBytes = UTF8.encode(key);
+            final ByteBuffer rec = ByteBuffer.allocate(2 + keyBytes.remaining() + 12);
+            rec.putShort((short) keyBytes.remaining()).put(keyBytes).putLong(offset).putInt(length);
+            rec.flip();
+            writeFully(channel, rec, channel.size());
+        }
 
-        public final int RBRACE = 139;
+        /**
+         * Keep the newest entries that fit in half the budget, copied to
+         * the files of the next generation. The current files stay open
+         * until the pointer names the new generation, so a failure leaves
+         * the store as it was.
+         */
+        private void compact() throws IOException {
+            final List<Map.Entry<String, long[]>> all = new ArrayList<Map.Entry<String, long[]>>(locations.entrySet());
+            long kept = 0;
+            int first = all.size();
+            while (first > 0) {
+                final long len = all.get(first - 1).getValue()[1];
+                if (kept + len > maxBytes / 2) {
+                    break;
+                }
+                kept += len;
+                first--;
+            }
+            final long next = generation + 1;
+            final File newSegmentFile = segmentFile(next);
+            final File newIndexFile = indexFile(next);
+            final LinkedHashMap<String, long[]> newLocations = new LinkedHashMap<String, long[]>();
+            boolean switched = false;
+            try {
+                final RandomAccessFile newSegment = new RandomAccessFile(newSegmentFile, "rw");
+                final RandomAccessFile newIndex = new RandomAccessFile(newIndexFile, "rw");
+                try {
+                    newSegment.setLength(0);
+                    newIndex.setLength(0);
+                    long offset = 0;
+                    for (int i = first; i < all.size(); i++) {
+                        final String key = all.get(i).getKey();
+                        final ByteBuffer value = getBuffer(key);
+                        final int length = value.remaining();
+                        writeFully(newSegment.getChannel(), value, offset);
+                        writeIndexRecord(newIndex.getChannel(), key, offset, length);
+                        newLocations.put(key, new long[] { offset, length });
+                        offset += length;
+                    }
+                    newSegment.getChannel().force(true);
+                    newIndex.getChannel().force(true);
+                } finally {
+                    newSegment.close();
+                    newIndex.close();
+                }
+                writeCurrent(next);
+                switched = true;
+            } finally {
+                if (!switched) {
+                    newSegmentFile.delete();
+                    newIndexFile.delete();
+                }
+            }
+            final File oldSegmentFile = segmentFile(generation);
+            final File oldIndexFile = indexFile(generation);
+            closeFiles();
+            generation = next;
+            locations = newLocations;
+            openFiles();
+            end = segment.size();
+            // May fail while the old segment is still mapped; open removes them then.
+            oldSegmentFile.delete();
+            oldIndexFile.delete();
+        }
 
-        public final int LPAREN = 140;
+        public synchronized int size() {
+            return locations.size();
+        }
 
-        public final int RPAREN = 141;
+        private void closeFiles() throws IOException {
+            mapped = null;
+            if (segmentFile != null) {
+                segmentFile.close();
+            }
+            if (indexFile != null) {
+                indexFile.close();
+            }
+        }
 
-        public final int LSQBRACKET = 142;
+        public synchronized void close() throws IOException {
+            try {
+                closeFiles();
+            } finally {
+                if (lockFile != null) {
+                    lock.release();
+                    lockFile.close();
+                    lockFile = null;
+                }
+            }
+        }
+    }
 
-        public final int RSQBRACKET = 143;
+    /**
+     * Immutable disassembler that request threads can share. The options
+     * are fixed when it is built; each call parses and prints with its own
+     * environment and printer, while the warm state (class path indexes,
+     * open jars, result caches) lives in the shared static structures.
+     *
+     * <pre>
+     * Disassembler d = new Disassembler(null, JavapEnvironment.PACKAGE,
+     *         new int[] { JavapEnvironment.VIEW_VERBOSE }, JavapRenderer.FORMAT_PLAIN);
+     * d.disassemble("java.lang.String", writer);
+     * </pre>
+     */
+    public static final class Disassembler {
 
-        public final int THROWS = 144;
+        /**
+         * Part of every cache key; bump when the printed output changes so
+         * listings kept on disk by an older build are not served.
+         */
+        static final int OUTPUT_VERSION = 1;
 
-        /*
-         * Special tokens
+        /**
+         * Largest listing, in chars, copied for the caches while streaming.
+         * Bigger ones are rendered again on the next request rather than
+         * held in memory for the whole response.
          */
-        public final int ERROR = 145; // an error
+        static final int STREAM_CAPTURE_CHARS = 64 * 1024;
 
-        public final int COMMENT = 146; // not used anymore.
+        /**
+         * Rendered results shared by every Disassembler, up to 32MB.
+         */
+        public static final DisassemblyCache RESULT_CACHE = new DisassemblyCache(32L * 1024 * 1024);
 
-        public final int TYPE = 147;
+        /**
+         * Optional persistent store behind RESULT_CACHE.
+         */
+        private static volatile DiskDisassemblyStore diskStore = null;
 
-        public final int LENGTH = 148;
+        private final String classPath;
 
-        public final int INLINERETURN = 149;
+        private final int access;
 
-        public final int INLINEMETHOD = 150;
+        private final int[] views;
 
-        public final int INLINENEWINSTANCE = 151;
+        private final int format;
 
-        /*
-         * Added for jasm
+        /**
+         * @param classPath
+         *            class path searched after the boot classes, or null for
+         *            the default search path and then the context class
+         *            loader of the calling thread. The jars on the class
+         *            path are indexed here.
+         * @param access
+         *            one of the JavapEnvironment access constants; less
+         *            visible members are left out
+         * @param views
+         *            JavapEnvironment VIEW_ constants, rendered in order
+         * @param format
+         *            one of the JavapRenderer FORMAT_ constants
          */
-        public final int METHODREF = 152;
-
-        public final int FIELDREF = 153;
-
-        public final int STACK = 154;
-
-        public final int LOCAL = 155;
-
-        public final int CPINDEX = 156;
+        public Disassembler(String classPath, int access, int[] views, int format) {
+            if (views == null || views.length == 0) {
+                throw new IllegalArgumentException("no views");
+            }
+            for (int i = 0; i < views.length; i++) {
+                JavapEnvironment.forView(views[i]);
+            }
+            if (access < JavapEnvironment.PRIVATE || access > JavapEnvironment.PUBLIC) {
+                throw new IllegalArgumentException("invalid access: " + access);
+            }
+            if (format < JavapRenderer.FORMAT_PLAIN || format > JavapRenderer.FORMAT_JSON) {
+                throw new IllegalArgumentException("invalid format: " + format);
+            }
+            this.classPath = classPath;
+            this.access = access;
+            this.views = views.clone();
+            this.format = format;
+            if (classPath != null) {
+                // Index the jars while the Disassembler is built, not on the first request
+                final JavapEnvironment env = new JavapEnvironment();
+                env.classPathString = classPath;
+                env.buildIndexes();
+            }
+        }
 
-        public final int CPNAME = 157;
+        /**
+         * Set the persistent store consulted when RESULT_CACHE misses, or
+         * null for none.
+         */
+        public static void setDiskStore(DiskDisassemblyStore store) {
+            diskStore = store;
+        }
 
-        public final int SIGN = 158;
+        public static DiskDisassemblyStore getDiskStore() {
+            return diskStore;
+        }
 
-        public final int BITS = 159;
+        /**
+         * Find the class, e.g. java.lang.String, and append its listing to
+         * target. A Writer target is flushed after every method.
+         *
+         * @throws ClassNotFoundException
+         *             if the class cannot be found
+         */
+        public void disassemble(String className, Appendable target) throws IOException, ClassNotFoundException {
+            final ByteBuffer classin = JavapEnvironment.toBuffer(open(className));
+            try {
+                render(classin, target);
+            } finally {
+                ClassBuffers.release(classin);
+            }
+        }
 
-        public final int INF = 160;
+        /**
+         * Find the class and write its listing to out as UTF-8, flushing
+         * after every method. A listing kept by the disk store is copied to
+         * out straight from the mapped segment, without decoding it.
+         *
+         * @throws ClassNotFoundException
+         *             if the class cannot be found
+         */
+        public void disassemble(String className, OutputStream out) throws IOException, ClassNotFoundException {
+            final ByteBuffer classin = JavapEnvironment.toBuffer(open(className));
+            try {
+                render(classin, out);
+            } finally {
+                ClassBuffers.release(classin);
+            }
+        }
 
-        public final int NAN = 161;
+        /**
+         * Append the listing of a class file to target.
+         *
+         * @throws IOException
+         *             if the bytes are not a valid class file
+         */
+        public void disassemble(byte[] classBytes, Appendable target) throws IOException {
+            render(ByteBuffer.wrap(classBytes), target);
+        }
 
-        public final int INNERCLASS = 162;
+        /**
+         * Append the listing of the class file in the remaining bytes of
+         * classBytes to target. The buffer position is not moved.
+         *
+         * @throws IOException
+         *             if the bytes are not a valid class file
+         */
+        public void disassemble(ByteBuffer classBytes, Appendable target) throws IOException {
+            render(classBytes, target);
+        }
 
-        public final int OF = 163;
+        private InputStream open(String className) throws IOException, ClassNotFoundException {
+            if (className.endsWith(".class")) {
+                className = className.substring(0, className.length() - ".class".length());
+            }
+            final JavapEnvironment env = new JavapEnvironment();
+            if (classPath != null) {
+                env.classPathString = classPath;
+            } else {
+                env.loader = Thread.currentThread().getContextClassLoader();
+            }
+            final ClassLookup lookup = env.lookupClass(className);
+            if (lookup.getStatus() == ClassLookup.NOT_FOUND) {
+                throw new ClassNotFoundException(lookup.getMessage());
+            }
+            if (!lookup.isFound()) {
+                throw new IOException(lookup.getMessage());
+            }
+            return lookup.getStream();
+        }
 
-        public final int SYNTHETIC = 164;
+        private void render(ByteBuffer classin, Appendable target) throws IOException {
+            if (target instanceof Writer) {
+                render(classin, (Writer) target, true);
+            } else {
+                render(classin, new AppendableWriter(target), false);
+            }
+        }
 
-        // last used=165;
+        private void render(ByteBuffer classin, OutputStream out) throws IOException {
+            final String key = cacheKey(classin);
+            final DiskDisassemblyStore disk = diskStore;
+            if (disk != null && RESULT_CACHE.get(key) == null) {
+                final ByteBuffer stored = disk.getBuffer(key);
+                if (stored != null) {
+                    final WritableByteChannel channel = Channels.newChannel(out);
+                    while (stored.hasRemaining()) {
+                        channel.write(stored);
+                    }
+                    out.flush();
+                    return;
+                }
+            }
+            final Writer writer = new OutputStreamWriter(out, "UTF-8");
+            render(classin, writer, true);
+            writer.flush();
+        }
 
-        /*
-         * Operator precedence
+        /**
+         * Return the result cache key: the class bytes digest and every
+         * option that shapes the output.
          */
-        public static final int opPrecedence[] = { 10, 11, 11, 11, 11, 11, 11, 11, 11, 11, 11, 11, 11, 12, 13, 14, 15,
-                16, 17, 18, 18, 19, 19, 19, 19, 19, 20, 20, 20, 21, 21, 22, 22, 22, 23, 24, 24, 24, 24, 24, 24, 25, 25,
-                26, 26, 26, 26, 26, 26 };
+        private String cacheKey(ByteBuffer classin) {
+            final StringBuilder key = new StringBuilder(80);
+            key.append(OUTPUT_VERSION).append('/').append(DisassemblyCache.sha1(classin)).append('/').append(format);
+            for (int i = 0; i < views.length; i++) {
+                final JavapEnvironment env = JavapEnvironment.forView(views[i]);
+                env.showAccess = access;
+                key.append('/').append(env.optionsKey());
+            }
+            return key.toString();
+        }
 
-        /*
-         * Operator names
+        /**
+         * Print every view of the class to target, from the result cache
+         * when the same bytes were rendered with the same options before.
          */
-        public static final String opNames[] = { ",", "=", "*=", "/=", "%=", "+=", "-=", "<<=", ">>=", "<<<=", "&=",
-                "|=", "^=", "?:", "||", "&&", "|", "^", "&", "!=", "==", ">=", ">", "<=", "<", "instanceof", "<<",
-                ">>", "<<<", "+", "-", "/", "%", "*", "cast", "+", "-", "!", "~", "++", "--", "new", "new", "new",
-                "++", "--", "field", "method", "[]", "new", "++", "--", null, null, null,
-
-                "convert", "expr", "array", "goto", null,
+        void render(ByteBuffer classin, Writer target, boolean flushPerMethod) throws IOException {
+            final String key = cacheKey(classin);
+            final DisassemblyCache memory = RESULT_CACHE;
+            final DiskDisassemblyStore disk = diskStore;
+            String cached = memory.get(key);
+            if (cached == null && disk != null) {
+                cached = disk.get(key);
+                if (cached != null) {
+                    memory.put(key, cached);
+                }
+            }
+            if (cached != null) {
+                target.write(cached);
+                target.flush();
+                return;
+            }
 
-                "Identifier", "Boolean", "Byte", "Char", "Short", "Integer", "Long", "Float", "Double", "String",
+            // Parse once, print every requested view
+            final ClassData cls = ClassData.parse(classin);
+            final int limit = flushPerMethod ? Math.min(memory.getMaxEntryChars(), STREAM_CAPTURE_CHARS) : memory
+                    .getMaxEntryChars();
+            final DisassemblyCache.CapturingWriter capture = new DisassemblyCache.CapturingWriter(target, limit);
+            final JavapRenderer renderer = JavapRenderer.create(format, capture);
+            for (int i = 0; i < views.length; i++) {
+                final JavapEnvironment env = JavapEnvironment.forView(views[i]);
+                env.showAccess = access;
+                JavapPrinter printer = new JavapPrinter(cls, renderer, env);
+                printer.setFlushPerMethod(flushPerMethod);
+                printer.print();
+            }
+            renderer.finish();
+            final String result = capture.getCopy();
+            if (result != null) {
+                memory.put(key, result);
+                if (disk != null) {
+                    try {
+                        disk.put(key, result);
+                    } catch (IOException e) {
+                        // The store is only a cache, the result is already written
+                    }
+                }
+            }
+        }
 
-                "byte", "char", "short", "int", "long", "float", "double", "void", "boolean", null,
+        /**
+         * Writer over any Appendable, e.g. a StringBuilder.
+         */
+        static final class AppendableWriter extends Writer {
 
-                "true", "false", "this", "super", "null", null, null, null, null, null,
+            private final Appendable target;
 
-                "if", "else", "for", "while", "do", "switch", "case", "default", "break", "continue", "return", "try",
-                "catch", "finally", "throw", "stat", "expression", "declaration", "declaration", null,
+            AppendableWriter(Appendable target) {
+                this.target = target;
+            }
 
-                "import", "class", "extends", "implements", "interface", "package", null, null, null, null,
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                target.append(CharBuffer.wrap(cbuf, off, len));
+            }
 
-                "private", "public", "protected", "const", "static", "transient", "synchronized", "native", "final",
-                "volatile", "abstract", null, null, null, null,
+            public void write(String str, int off, int len) throws IOException {
+                target.append(str, off, off + len);
+            }
 
-                ";", ":", "?", "{", "}", "(", ")", "[", "]", "throws", "error", "comment", "type", "length",
-                "inline-return", "inline-method", "inline-new", "method", "field", "stack", "locals", "CPINDEX",
-                "CPName", "SIGN", "bits", "INF", "NaN", "InnerClass", "of", "synthetic" };
+            public void flush() throws IOException {
+                if (target instanceof Flushable) {
+                    ((Flushable) target).flush();
+                }
+            }
 
+            public void close() throws IOException {
+                flush();
+            }
+        }
     }
 
     public interface IExtractClassData {
@@ -5134,6 +9037,24 @@ public class TestRuntimeWrapper {
 
         public void setVerbose(boolean v);
 
+        /**
+         * Render each of the given JavapEnvironment VIEW_ constants, in
+         * order, from a single parse of the class. Overrides setVerbose.
+         */
+        public void setViews(int[] views);
+
+        /**
+         * Select one of the JavapRenderer FORMAT_ constants for the result.
+         */
+        public void setOutputFormat(int format);
+
+        /**
+         * Resolve the class and stream the result to target as it is
+         * printed, flushing after every method, instead of collecting it
+         * for getResult.
+         */
+        public void writeTo(Writer target) throws IOException, ClassNotFoundException;
+
     } // End of the Class //
 
     public static class ExtractClassData implements IExtractClassData {
@@ -5142,9 +9063,7 @@ public class TestRuntimeWrapper {
 
         private PrintWriter out = new PrintWriter(new ByteArrayOutputStream());
 
-        private final JavapEnvironment env = new JavapEnvironment();
-
-        private static boolean errorOccurred = false;
+        private boolean errorOccurred = false;
 
         private String inputClassName = "java.lang.Object";
 
@@ -5152,6 +9071,15 @@ public class TestRuntimeWrapper {
 
         private boolean verbose = false;
 
+        private int[] views = null;
+
+        private int outputFormat = JavapRenderer.FORMAT_PLAIN;
+
+        /**
+         * Built from the settings on first use, dropped when they change.
+         */
+        private Disassembler disassembler = null;
+
         /////////////////////////////////////////////////////////////////
 
         public void appMain(String[] argv) {
@@ -5183,12 +9111,16 @@ public class TestRuntimeWrapper {
 
         public void displayResults(InputStream classinMem) {
 
-            final InputStream classin = classinMem;
             try {
-                // actual do display
-                JavapPrinter printer = new JavapPrinter(classin, out, env);
-                printer.print();
+                final ByteBuffer classin = JavapEnvironment.toBuffer(classinMem);
+                try {
+                    disassembler().render(classin, out, false);
+                } finally {
+                    ClassBuffers.release(classin);
+                }
 
+            } catch (IOException exc) {
+                error(exc.getMessage());
             } catch (IllegalArgumentException exc) {
                 error(exc.getMessage());
             }
@@ -5228,21 +9160,35 @@ public class TestRuntimeWrapper {
         public void perform() {
 
             final String classNameParm =  convertClassnameFormat(this.inputClassName);
-            if (this.verbose) {
-                System.out.print("Verbose mode enabled");
-                this.env.setShowVerbose(true);
-                this.env.setShowDisassembled(true);
-                this.env.setShowLineAndLocal(true);
-            } else {
-                System.out.print("Verbose mode disabled");
+            try {
+                disassembler().disassemble(classNameParm, out);
+            } catch (ClassNotFoundException exc) {
+                error(exc.getMessage());
+            } catch (IOException exc) {
+                error(exc.getMessage());
+            } catch (IllegalArgumentException exc) {
+                error(exc.getMessage());
             }
-            System.out.print("At perform - current thread: " + Thread.currentThread());
-            final InputStream input = Thread.currentThread().getContextClassLoader().getResourceAsStream(classNameParm);
+        }
+
+        /**
+         * @throws ClassNotFoundException
+         *             if the class cannot be found
+         */
+        public void writeTo(Writer target) throws IOException, ClassNotFoundException {
+            disassembler().disassemble(convertClassnameFormat(this.inputClassName), target);
+        }
 
-            if (input == null) {
-                throw new IllegalStateException("Invalid class resource, classname=" + classNameParm);
+        /**
+         * Return the Disassembler for the current settings.
+         */
+        private Disassembler disassembler() {
+            if (disassembler == null) {
+                final int[] toRender = (views != null) ? views : new int[] { verbose ? JavapEnvironment.VIEW_VERBOSE
+                        : JavapEnvironment.VIEW_SUMMARY };
+                disassembler = new Disassembler(null, JavapEnvironment.PACKAGE, toRender, outputFormat);
             }
-            displayResults(input);
+            return disassembler;
         }
 
         public void setInputClassName(String in) {
@@ -5265,7 +9211,17 @@ public class TestRuntimeWrapper {
 
         public void setVerbose(boolean v) {
             this.verbose= v;
-            System.out.print("Setting verbose (" + v + ")");
+            this.disassembler = null;
+        }
+
+        public void setViews(int[] views) {
+            this.views = (views == null) ? null : views.clone();
+            this.disassembler = null;
+        }
+
+        public void setOutputFormat(int format) {
+            this.outputFormat = format;
+            this.disassembler = null;
         }
 
     } // End of the Class //
@@ -0,0 +1,184 @@
+/**
+ * Copyright Berlin Brown
+ * Simple web application for javap, disassemble java classes
+ *
+ * To run - simply launch org.berlin.research.net.WebServerStart
+ *
+ * Tested with Java6, Jetty, Wicket1.4.13
+ *
+ * keywords: javap, java, java6, scala, jetty
+ */
+package org.berlin.research.javap;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.apache.wicket.IRequestTarget;
+import org.apache.wicket.PageParameters;
+import org.apache.wicket.RequestCycle;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.protocol.http.WebResponse;
+import org.berlin.research.javap.TestRuntimeWrapper.Disassembler;
+import org.berlin.research.javap.TestRuntimeWrapper.JavapEnvironment;
+import org.berlin.research.javap.TestRuntimeWrapper.JavapRenderer;
+
+/**
+ * Streams the disassembly of one class straight to the servlet response,
+ * flushing after every method. Memory per request is the class file, the
+ * parsed class, the write buffer and a copy for the result cache that is
+ * dropped once the listing passes Disassembler.STREAM_CAPTURE_CHARS.
+ *
+ * <pre>
+ * Add stream to WicketApplication.init:
+ * mountBookmarkablePage("/stream", TestStreamRuntimeInfo.class);
+ *
+ * Parameters:
+ *   class  - class name, e.g. java.lang.String
+ *   view   - comma separated summary, verbose, lines (default summary,verbose)
+ *   format - plain, html or json (default html)
+ * </pre>
+ */
+public class TestStreamRuntimeInfo extends WebPage {
+
+    private static final long serialVersionUID = 1L;
+
+    private final static Logger LOGGER = Logger.getLogger(TestStreamRuntimeInfo.class);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * One Disassembler per view and format combination, shared by every
+     * request. parseViews drops repeated views, so there are few of them.
+     */
+    private static final ConcurrentHashMap<String, Disassembler> DISASSEMBLERS = new ConcurrentHashMap<String, Disassembler>();
+
+    public TestStreamRuntimeInfo(final PageParameters parameters) {
+        super(parameters);
+        final String className = parameters.getString("class", "java.lang.Object");
+        final int[] views = parseViews(parameters.getString("view", "summary,verbose"));
+        final int format = parseFormat(parameters.getString("format", "html"));
+        LOGGER.info("Streaming disassembly : " + className);
+        getRequestCycle().setRequestTarget(new DisassemblyRequestTarget(className, views, format));
+    }
+
+    static int[] parseViews(final String value) {
+        final StringTokenizer tok = new StringTokenizer(value, ",");
+        final int[] views = new int[tok.countTokens()];
+        int count = 0;
+        while (tok.hasMoreTokens()) {
+            final String view = tok.nextToken().trim();
+            final int parsed;
+            if (view.equals("verbose")) {
+                parsed = JavapEnvironment.VIEW_VERBOSE;
+            } else if (view.equals("lines")) {
+                parsed = JavapEnvironment.VIEW_LINES;
+            } else {
+                parsed = JavapEnvironment.VIEW_SUMMARY;
+            }
+            boolean seen = false;
+            for (int i = 0; i < count; i++) {
+                seen |= views[i] == parsed;
+            }
+            if (!seen) {
+                views[count++] = parsed;
+            }
+        }
+        return Arrays.copyOf(views, count);
+    }
+
+    /**
+     * Return the shared Disassembler for the views and format.
+     */
+    static Disassembler disassemblerFor(final int[] views, final int format) {
+        final String key = format + Arrays.toString(views);
+        Disassembler disassembler = DISASSEMBLERS.get(key);
+        if (disassembler == null) {
+            disassembler = new Disassembler(null, JavapEnvironment.PACKAGE, views, format);
+            final Disassembler existing = DISASSEMBLERS.putIfAbsent(key, disassembler);
+            if (existing != null) {
+                disassembler = existing;
+            }
+        }
+        return disassembler;
+    }
+
+    static int parseFormat(final String value) {
+        if (value.equals("plain")) {
+            return JavapRenderer.FORMAT_PLAIN;
+        } else if (value.equals("json")) {
+            return JavapRenderer.FORMAT_JSON;
+        }
+        return JavapRenderer.FORMAT_HTML;
+    }
+
+    /**
+     * Writes the printer output to the servlet output stream instead of
+     * rendering a page.
+     */
+    public static final class DisassemblyRequestTarget implements IRequestTarget {
+
+        private final String className;
+
+        private final int[] views;
+
+        private final int format;
+
+        public DisassemblyRequestTarget(final String className, final int[] views, final int format) {
+            this.className = className;
+            this.views = views;
+            this.format = format;
+        }
+
+        public void respond(final RequestCycle requestCycle) {
+            final HttpServletResponse response = ((WebResponse) requestCycle.getResponse()).getHttpServletResponse();
+            try {
+                final Disassembler disassembler = disassemblerFor(views, format);
+                switch (format) {
+                case JavapRenderer.FORMAT_PLAIN:
+                    response.setContentType("text/plain; charset=UTF-8");
+                    break;
+                case JavapRenderer.FORMAT_JSON:
+                    response.setContentType("application/json; charset=UTF-8");
+                    break;
+                default:
+                    response.setContentType("text/html; charset=UTF-8");
+                }
+                final OutputStream out = new BufferedOutputStream(response.getOutputStream(), BUFFER_SIZE);
+                if (format == JavapRenderer.FORMAT_HTML) {
+                    out.write("<html><body><pre>".getBytes("UTF-8"));
+                }
+                disassembler.disassemble(className, out);
+                if (format == JavapRenderer.FORMAT_HTML) {
+                    out.write("</pre></body></html>".getBytes("UTF-8"));
+                }
+                out.flush();
+            } catch (ClassNotFoundException e) {
+                LOGGER.info("Class not found : " + className);
+                sendError(response, HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+            } catch (IOException e) {
+                LOGGER.error("Error streaming disassembly : " + className, e);
+            }
+        }
+
+        private void sendError(final HttpServletResponse response, final int status, final String msg) {
+            try {
+                if (!response.isCommitted()) {
+                    response.sendError(status, msg);
+                }
+            } catch (IOException e) {
+                LOGGER.error("Error sending status " + status, e);
+            }
+        }
+
+        public void detach(final RequestCycle requestCycle) {
+        }
+    }
+
+} // End of the class
@@ -10,6 +10,7 @@
  */
 package org.berlin.research.javap;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -26,8 +27,10 @@ import org.apache.wicket.markup.html.form.TextField;
 import org.apache.wicket.model.CompoundPropertyModel;
 import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.protocol.http.WebApplication;
-import org.berlin.research.javap.TestRuntimeWrapper.ExtractClassData;
-import org.berlin.research.javap.TestRuntimeWrapper.IExtractClassData;
+import org.apache.wicket.util.string.Strings;
+import org.berlin.research.javap.TestRuntimeWrapper.Disassembler;
+import org.berlin.research.javap.TestRuntimeWrapper.JavapEnvironment;
+import org.berlin.research.javap.TestRuntimeWrapper.JavapRenderer;
 
 /**
  * Test Page for Create and Read Operations.
@@ -42,6 +45,12 @@ public class TestViewRuntimeInfo extends WebPage {
 
     private final static Logger LOGGER = Logger.getLogger(TestViewRuntimeInfo.class);
 
+    /**
+     * Shared by all requests; summary and verbose views as HTML.
+     */
+    private static final Disassembler DISASSEMBLER = new Disassembler(null, JavapEnvironment.PACKAGE, new int[] {
+            JavapEnvironment.VIEW_SUMMARY, JavapEnvironment.VIEW_VERBOSE }, JavapRenderer.FORMAT_HTML);
+
     public static final class Data implements Serializable {
         private static final long serialVersionUID = 1L;
         private String val = "";
@@ -129,47 +138,25 @@ public class TestViewRuntimeInfo extends WebPage {
 
                 final Form<RuntimeData> formLoc = (Form<RuntimeData>) form;
                 final StringBuilder buf = new StringBuilder();
-                final IExtractClassData classData2 = new ExtractClassData();
-                classData2.setVerbose(false);
-                classData2.setInputClassName(tf.getInput());
-                classData2.appMain(null);
-                buf.append(classData2.getResult());
-
-                final IExtractClassData classData3 = new ExtractClassData();
-                classData3.setVerbose(true);
-                classData3.setInputClassName(tf.getInput());
-                classData3.appMain(null);
-                buf.append(classData3.getResult());
-                formLoc.getModelObject().setAssemblyJavaCode(highlightSyntax(buf.toString()));
+                final String className = tf.getInput();
+                try {
+                    DISASSEMBLER.disassemble((className == null || className.length() == 0) ? "java.lang.Object"
+                            : className, buf);
+                } catch (ClassNotFoundException e) {
+                    LOGGER.info("Class not found : " + className);
+                    buf.setLength(0);
+                    buf.append("Class not found : ").append(Strings.escapeMarkup(className));
+                } catch (IOException e) {
+                    LOGGER.error("Error disassembling : " + className, e);
+                }
+                // Markup comes from the HTML renderer, no highlighting pass needed
+                formLoc.getModelObject().setAssemblyJavaCode(buf.toString());
                 target.addComponent(form);
             }
         });
         form.add(new Label("assemblyJavaCode").setEscapeModelStrings(false));
     }
 
-    /**
-     * Simple seach and replace to highlight syntax.
-     *
-     * @return
-     */
-    public String highlightSyntax(final String indata) {
-        String data = indata;
-        data = data.replaceAll("final", "<span style='color:#7F0055; font-weight:bold'>final</span>");
-        data = data.replaceAll("public", "<span style='color:#7F0055; font-weight:bold'>public</span>");
-        data = data.replaceAll("private", "<span style='color:#7F0055; font-weight:bold'>private</span>");
-        data = data.replaceAll("const", "<span style='color:#7F0055; font-weight:bold'>const</span>");
-        data = data.replaceAll("Code:", "<span style='text-decoration:underline;color:#7F0055; font-weight:bold'>Code:</span>");
-        data = data.replaceAll("invokevirtual", "<span style='color:#7F0055; font-weight:bold'>invokevirtual</span>");
-        data = data.replaceAll("invokestatic", "<span style='color:#7F0055; font-weight:bold'>invokevirtual</span>");
-        data = data.replaceAll("invokespecial", "<span style='color:#7F0055; font-weight:bold'>invokevirtual</span>");
-        data = data.replaceAll("//Method", "<span style='color:#0000C6; font-weight:bold'>//Method</span>");
-
-        data = data.replaceAll("Asciz", "<span style='text-decoration:underline;font-weight:bold'>Asciz</span>");
-        data = data.replaceAll("BUILD_NUM", "<span style='text-decoration:underline;font-weight:bold'>BUILD_NUM</span>");
-
-        return data;
-    }
-
     public class ColorConstants {
 
         /*
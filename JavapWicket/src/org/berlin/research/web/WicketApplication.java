@@ -1,6 +1,14 @@
 package org.berlin.research.web;
 
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
 import org.apache.wicket.protocol.http.WebApplication;
+import org.berlin.research.javap.TestRuntimeWrapper.Disassembler;
+import org.berlin.research.javap.TestRuntimeWrapper.DiskDisassemblyStore;
+import org.berlin.research.javap.TestRuntimeWrapper.JavapEnvironment;
+import org.berlin.research.javap.TestStreamRuntimeInfo;
 import org.berlin.research.javap.TestViewRuntimeInfo;
 
 /**
@@ -11,6 +19,13 @@ import org.berlin.research.javap.TestViewRuntimeInfo;
  */
 public class WicketApplication extends WebApplication {
 
+    private final static Logger LOGGER = Logger.getLogger(WicketApplication.class);
+
+    /**
+     * Size budget of the on-disk disassembly cache.
+     */
+    private static final long DISK_CACHE_BYTES = 256L * 1024 * 1024;
+
     /**
      * Constructor
      */
@@ -24,6 +39,32 @@ public class WicketApplication extends WebApplication {
     protected void init() {
         super.init();
         mountBookmarkablePage("/runtime", TestViewRuntimeInfo.class);
+        mountBookmarkablePage("/stream", TestStreamRuntimeInfo.class);
+
+        // Keep rendered results across restarts, set javap.cache.dir to move it
+        final File cacheDir = new File(System.getProperty("javap.cache.dir",
+                new File(System.getProperty("java.io.tmpdir"), "javap-cache").getPath()));
+        try {
+            Disassembler.setDiskStore(DiskDisassemblyStore.open(cacheDir, DISK_CACHE_BYTES));
+            LOGGER.info("Disassembly cache : " + cacheDir);
+        } catch (IOException e) {
+            LOGGER.error("Disassembly cache disabled : " + cacheDir, e);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        final DiskDisassemblyStore store = Disassembler.getDiskStore();
+        if (store != null) {
+            Disassembler.setDiskStore(null);
+            try {
+                store.close();
+            } catch (IOException e) {
+                LOGGER.error("Error closing disassembly cache", e);
+            }
+        }
+        JavapEnvironment.JAR_POOL.closeAll();
+        super.onDestroy();
     }
 
     /**